@@ -1,36 +1,69 @@
 package org.openntf.tiles.document;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Vector;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Base64InputStream;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.openntf.domino.Document;
 import org.openntf.domino.EmbeddedObject;
 import org.openntf.domino.Item;
 import org.openntf.domino.MIMEEntity;
-import org.openntf.domino.MIMEHeader;
 import org.openntf.domino.RichTextItem;
+import org.openntf.tiles.jfr.DominoEvent;
+import org.openntf.tiles.jfr.DominoEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
 /**
  * A wrapper class around attachment embedded in a field on a document. The
  * attachment can be embedded in standard rich text field or as a MIME object.
+ * An attachment should be closed to release detached content.
  *
  * @author Mariusz Jakubowski
  */
-public abstract class Attachment {
+public abstract class Attachment implements Closeable {
     
+    private static final Logger LOG = LoggerFactory.getLogger(Attachment.class);
+
+    /** Maximum depth of nested multipart MIME entities. */
+    public static final int MAX_MIME_DEPTH = 32;
+
+    /** Strong entity tags computed from contents, keyed by weak tags. */
+    private static final Cache<String, String> DIGESTS = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+
     protected String fileName;
 
     protected Document document;
 
+    private final String universalID;
+
+    private final long lastModified;
+
     /**
      * Creates a list of attachments extracting files from a field in a
      * document.
@@ -47,19 +80,72 @@ public abstract class Attachment {
             throw new NullPointerException("no field named " + fieldName
                     + " on doc=" + doc.getUniversalID());
         }
+        DominoEvent event = DominoEvents.document("parse").document(doc);
         List<Attachment> ret = new ArrayList<>();
         switch (item.getTypeEx()) {
         case RICHTEXT:
             extractFromRT(doc, (RichTextItem) item, ret);
             break;
         case MIME_PART:
-            extractFromMime(doc, item.getMIMEEntity(), ret, 0);
+            extractFromMime(doc, item.getMIMEEntity(), ret);
             doc.closeMIMEEntities(false, fieldName);
             break;
         default:
             throw new IllegalArgumentException("wrong type of a field "
                     + fieldName + " on doc=" + doc.getUniversalID());
         }
+        if (event.isEnabled()) {
+            long bytes = 0;
+            for (Attachment att : ret) {
+                bytes += att.getSize();
+            }
+            event.bytes(bytes);
+        }
+        event.commit();
+        return ret;
+    }
+
+    /**
+     * Reads names and sizes of attachments in a field without copying 
+     * their contents.
+     *
+     * @param doc
+     *            a document where an attachments are stored
+     * @param fieldName
+     *            a name of a field which contains attachments
+     * @return information about attachments
+     */
+    public static List<AttachmentInfo> describeAttachments(final Document doc,
+            final String fieldName) {
+        Item item = doc.getFirstItem(fieldName);
+        if (item == null) {
+            throw new NullPointerException("no field named " + fieldName
+                    + " on doc=" + doc.getUniversalID());
+        }
+        List<AttachmentInfo> ret = new ArrayList<>();
+        switch (item.getTypeEx()) {
+        case RICHTEXT:
+            Vector<EmbeddedObject> eos = ((RichTextItem) item).getEmbeddedObjects();
+            if (eos != null) {
+                for (EmbeddedObject eo : eos) {
+                    ret.add(new AttachmentInfo(fieldName, eo.getName(), eo.getFileSize()));
+                }
+            }
+            break;
+        case MIME_PART:
+            try {
+                walkMime(doc, item.getMIMEEntity(), (entity, headers) -> 
+                    ret.add(new AttachmentInfo(fieldName, 
+                            MimeAttachment.readFileName(headers), 
+                            MimeAttachment.readSize(doc, entity, headers))));
+            } finally {
+                doc.closeMIMEEntities(false, fieldName);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("wrong type of a field "
+                    + fieldName + " on doc=" + doc.getUniversalID());
+        }
         return ret;
     }
 
@@ -101,40 +187,81 @@ public abstract class Attachment {
     }
 
     /**
-     * Extracts an attachment from a mime field.
+     * Extracts attachments from a mime field.
      *
      * @param doc
      *            parent document
      *
-     * @param entity
-     *            a mime containing an attachment.
-     * @return
+     * @param root
+     *            a root mime entity of a field
+     * @param ret
+     *            a list where attachments are added
      */
     private static void extractFromMime(final Document doc, 
-            final MIMEEntity entity,
-            final List<Attachment> ret, 
-            int count) {
-        assert entity != null;
-        MIMEHeader type = entity.getNthHeader("Content-Type");
-        MIMEHeader disposition = entity.getNthHeader("Content-Disposition");
-        if (type != null && type.getHeaderVal().contains("multipart")) {
-            MIMEEntity child = entity.getFirstChildEntity();
-            while (child != null) {
-                count++;
-                if (count > 10) {
-                    return;
+            final MIMEEntity root,
+            final List<Attachment> ret) {
+        walkMime(doc, root, (entity, headers) -> ret.add(new MimeAttachment(doc, entity, headers)));
+    }
+
+    /**
+     * Visits entities with attachments in a mime field. The tree of 
+     * entities is walked iteratively in document order up to 
+     * {@link #MAX_MIME_DEPTH} levels of nested multiparts. Headers of 
+     * each entity are read once.
+     *
+     * @param doc
+     *            parent document
+     * @param root
+     *            a root mime entity of a field
+     * @param visitor
+     *            called with an entity containing an attachment and 
+     *            its headers
+     */
+    static void walkMime(final Document doc, 
+            final MIMEEntity root,
+            final BiConsumer<MIMEEntity, Map<String, String>> visitor) {
+        assert root != null;
+        Deque<MIMEEntity> entities = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        entities.push(root);
+        depths.push(0);
+        List<MIMEEntity> children = new ArrayList<>();
+        while (!entities.isEmpty()) {
+            MIMEEntity entity = entities.pop();
+            int depth = depths.pop();
+            Map<String, String> headers = MimeAttachment.readHeaders(entity);
+            HeaderValue type = HeaderValue.parse(headers.get("content-type"));
+            if (type.getValue().startsWith("multipart/")) {
+                if (depth >= MAX_MIME_DEPTH) {
+                    LOG.warn("MIME entities nested deeper than {} on doc={}", 
+                            MAX_MIME_DEPTH, doc.getUniversalID());
+                    continue;
+                }
+                MIMEEntity child = entity.getFirstChildEntity();
+                while (child != null) {
+                    children.add(child);
+                    child = child.getNextSibling();
+                }
+                // push in reverse to visit children in order
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    entities.push(children.get(i));
+                    depths.push(depth + 1);
+                }
+                children.clear();
+            } else {
+                HeaderValue disposition = HeaderValue.parse(headers.get("content-disposition"));
+                if ("attachment".equals(disposition.getValue())) {
+                    visitor.accept(entity, headers);
                 }
-                extractFromMime(doc, child, ret, count);
-                child = child.getNextEntity();
             }
-        } else if (disposition != null
-                && disposition.getHeaderVal().contains("attachment")) {
-            ret.add(new MimeAttachment(doc, entity));
         }
     }
 
     protected Attachment(final Document doc) {
         this.document = doc;
+        this.universalID = doc.getUniversalID();
+        Date modified = doc.getLastModifiedDate();
+        this.lastModified = modified == null ? 0 : modified.getTime();
     }
 
     /**
@@ -159,6 +286,134 @@ public abstract class Attachment {
      */
     public abstract int getSize();
 
+    /**
+     * Returns contents of a file as stored, eg. compressed. 
+     * It can be sent to HTTP clients accepting 
+     * {@link #getContentEncoding()} without decoding.
+     *
+     * @return stream of bytes
+     */
+    public InputStream getEncodedStream() {
+        return getStream();
+    }
+
+    /**
+     * Returns length of an attachment as stored.
+     * @return length of an encoded attachment
+     */
+    public int getEncodedSize() {
+        return getSize();
+    }
+
+    /**
+     * Returns encoding of a stored content, eg. <code>gzip</code>.
+     * @return content encoding or null if content isn't encoded
+     */
+    public String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Returns time when the document with this attachment was modified.
+     *
+     * @return milliseconds since epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns a weak entity tag of an attachment. The tag is computed from
+     * document UNID, modification time, file name and size without 
+     * reading the content.
+     *
+     * @return a weak entity tag, eg. <code>W/"..."</code>
+     */
+    public String getETag() {
+        String key = universalID + "|" + lastModified + "|" + fileName + "|" + getSize();
+        return "W/\"" + Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8) + "\"";
+    }
+
+    /**
+     * Returns a strong entity tag of an attachment computed as a SHA-256 
+     * digest of its content. The digest is computed once and cached
+     * for the same weak tag.
+     *
+     * @return a strong entity tag
+     * @throws IOException
+     */
+    public String getStrongETag() throws IOException {
+        return getStrongETag(null);
+    }
+
+    /**
+     * Returns a strong entity tag of a representation of an attachment 
+     * sent with a content encoding, eg. returned by 
+     * {@link #sendTo(OutputStream, String)}. The encoded representation
+     * has a different tag, eg. <code>"...-gzip"</code>.
+     *
+     * @param contentEncoding
+     *            encoding of sent content or null
+     * @return a strong entity tag
+     * @throws IOException
+     */
+    public String getStrongETag(final String contentEncoding) throws IOException {
+        String weak = getETag();
+        String strong = DIGESTS.getIfPresent(weak);
+        if (strong == null) {
+            InputStream stream = getStream();
+            try {
+                strong = "\"" + DigestUtils.sha256Hex(stream) + "\"";
+            } finally {
+                stream.close();
+            }
+            DIGESTS.put(weak, strong);
+        }
+        return contentEncoding == null ? strong : encodedTag(strong, contentEncoding);
+    }
+
+    private static String encodedTag(final String strong, final String contentEncoding) {
+        return strong.substring(0, strong.length() - 1) + "-" + contentEncoding + "\"";
+    }
+
+    /**
+     * Checks if a client has a current version of an attachment, so 
+     * the response can be 304 Not Modified. If-None-Match takes precedence 
+     * over If-Modified-Since. The content isn't read.
+     *
+     * @param ifNoneMatch
+     *            value of If-None-Match header or null
+     * @param ifModifiedSince
+     *            value of If-Modified-Since header in milliseconds since 
+     *            epoch or -1
+     * @return true if the attachment wasn't modified
+     */
+    public boolean isNotModified(final String ifNoneMatch, final long ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            String weak = getETag();
+            String strong = DIGESTS.getIfPresent(weak);
+            String encoding = getContentEncoding();
+            String encoded = strong == null || encoding == null ? null : encodedTag(strong, encoding);
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                String opaque = tag.startsWith("W/") ? tag.substring(2) : tag;
+                if (opaque.equals(weak.substring(2)) || opaque.equals(strong) 
+                        || opaque.equals(encoded)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (ifModifiedSince >= 0 && lastModified > 0) {
+            // HTTP dates have a precision of one second
+            return lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        return false;
+    }
+
     /**
      * Returns contents of a file encoded in base64 as stream.
      *
@@ -226,6 +481,125 @@ public abstract class Attachment {
         }
     }
 
+    /**
+     * Sends contents of a file to an output stream. If a client accepts
+     * encoding of a stored content, the content is sent without decoding.
+     *
+     * @param out
+     *            an output stream.
+     * @param acceptEncoding
+     *            value of Accept-Encoding header or null
+     * @return encoding of sent content (value of Content-Encoding header) 
+     *          or null
+     * @throws IOException
+     * @see #getStrongETag(String)
+     */
+    public String sendTo(final OutputStream out, final String acceptEncoding) 
+            throws IOException {
+        String encoding = getContentEncoding();
+        if (encoding == null || !accepts(acceptEncoding, encoding)) {
+            sendTo(out);
+            return null;
+        }
+        InputStream stream = getEncodedStream();
+        try {
+            ByteStreams.copy(stream, out);
+        } finally {
+            stream.close();
+        }
+        return encoding;
+    }
+
+    /**
+     * Checks if a content coding is acceptable according to Accept-Encoding
+     * header. Codings with <code>q=0</code> aren't acceptable, 
+     * <code>x-gzip</code> is equivalent to <code>gzip</code> and 
+     * <code>*</code> matches codings not listed explicitly.
+     *
+     * @param acceptEncoding
+     *            value of Accept-Encoding header or null
+     * @param coding
+     *            a content coding, eg. <code>gzip</code>
+     * @return true if the coding is acceptable
+     */
+    static boolean accepts(final String acceptEncoding, final String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        String wanted = normalizeCoding(coding);
+        double any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] params = element.split(";");
+            String name = normalizeCoding(params[0]);
+            if (name.isEmpty()) {
+                continue;
+            }
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals(wanted)) {
+                return q > 0;
+            }
+            if (name.equals("*")) {
+                any = q;
+            }
+        }
+        return any > 0;
+    }
+
+    private static String normalizeCoding(final String coding) {
+        String name = coding.trim().toLowerCase(Locale.ROOT);
+        return name.startsWith("x-") ? name.substring(2) : name;
+    }
+
+    /**
+     * Returns a scaled down version of an image attachment, eg. a thumbnail.
+     * The derivative is created once and cached.
+     *
+     * @param maxWidth
+     *            maximum width of an image
+     * @param maxHeight
+     *            maximum height of an image
+     * @return a file with an image
+     * @throws IOException
+     * @see ImageDerivatives
+     */
+    public File getDerivative(final int maxWidth, final int maxHeight) throws IOException {
+        return ImageDerivatives.getDefault().get(this, maxWidth, maxHeight);
+    }
+
+    /**
+     * Sends a scaled down version of an image attachment to an output stream.
+     *
+     * @param out
+     *            an output stream
+     * @param maxWidth
+     *            maximum width of an image
+     * @param maxHeight
+     *            maximum height of an image
+     * @return MIME type of sent image
+     * @throws IOException
+     */
+    public String sendDerivativeTo(final OutputStream out, 
+            final int maxWidth,
+            final int maxHeight) throws IOException {
+        try {
+            Files.copy(getDerivative(maxWidth, maxHeight).toPath(), out);
+        } catch (NoSuchFileException e) {
+            // evicted before it was opened, nothing was written yet
+            Files.copy(getDerivative(maxWidth, maxHeight).toPath(), out);
+        }
+        return ImageDerivatives.getContentType(this);
+    }
+
     /**
      * Returns MIME type of a file based on a fileName.
      *
@@ -245,6 +619,13 @@ public abstract class Attachment {
         return mime;
     }
 
+    /**
+     * Releases resources held by this attachment.
+     */
+    @Override
+    public void close() {
+    }
+
     @Override
     public String toString() {
         return "[Attachment " + fileName + ", size=" + getSize() + "]";
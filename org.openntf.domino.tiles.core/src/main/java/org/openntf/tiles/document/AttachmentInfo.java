@@ -0,0 +1,61 @@
+package org.openntf.tiles.document;
+
+import java.io.Serializable;
+
+/**
+ * Information about an attachment without its content.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public final class AttachmentInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fieldName;
+    private final String fileName;
+    private final int size;
+
+    /**
+     * Constructs a new instance of {@link AttachmentInfo}.
+     *
+     * @param fieldName
+     *            a field where an attachment is stored
+     * @param fileName
+     *            a file name of an attachment
+     * @param size
+     *            length of an attachment in bytes
+     */
+    public AttachmentInfo(final String fieldName, final String fileName, final int size) {
+        this.fieldName = fieldName;
+        this.fileName = fileName;
+        this.size = size;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns MIME type of an attachment based on a file name.
+     * @return MIME type
+     * @see Attachment#guessMIME(String)
+     */
+    public String getContentType() {
+        return Attachment.guessMIME(fileName);
+    }
+
+    @Override
+    public String toString() {
+        return "[AttachmentInfo " + fieldName + "/" + fileName + ", size=" + size + "]";
+    }
+
+}
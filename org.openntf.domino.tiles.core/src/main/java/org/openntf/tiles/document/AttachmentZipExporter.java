@@ -0,0 +1,317 @@
+package org.openntf.tiles.document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.DocumentCollection;
+import org.openntf.domino.Item;
+import org.openntf.tiles.config.DBPath;
+import org.openntf.tiles.runner.DominoRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileBackedOutputStream;
+
+/**
+ * Exports attachments from many documents into a ZIP archive written 
+ * directly to an output stream.
+ * <p>
+ * Attachments are read in parallel by a pool of Domino threads, a limited 
+ * number of documents ahead of the writer. Contents of a document's 
+ * attachments are buffered in memory up to a threshold and in a temporary 
+ * file above it. Attachments of a document are read one at a time, 
+ * a MIME attachment is detached to {@link ContentStorage} and released 
+ * as soon as it's copied. Memory used doesn't depend on the size of 
+ * the export: about <code>prefetch * memoryThreshold</code> bytes of 
+ * the heap for buffered documents plus, for each thread, one attachment
+ * held by the {@link ContentStorage} (on the heap, in direct buffers or 
+ * in a temporary file, depending on its size) and Domino's own stream
+ * buffers.
+ * Entries are written in the order of documents and attachments.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class AttachmentZipExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AttachmentZipExporter.class);
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_PREFETCH = 8;
+
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    private final int threads;
+
+    private final int prefetch;
+
+    private final int memoryThreshold;
+
+    /**
+     * Constructs an exporter with default settings.
+     */
+    public AttachmentZipExporter() {
+        this(DEFAULT_THREADS, DEFAULT_PREFETCH, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Constructs a new instance of {@link AttachmentZipExporter}.
+     *
+     * @param threads
+     *            number of threads reading attachments
+     * @param prefetch
+     *            number of documents read ahead of the writer
+     * @param memoryThreshold
+     *            number of bytes of a document buffered in memory before
+     *            using a temporary file
+     */
+    public AttachmentZipExporter(final int threads, 
+            final int prefetch, 
+            final int memoryThreshold) {
+        if (threads < 1 || prefetch < 1 || memoryThreshold < 0) {
+            throw new IllegalArgumentException("wrong exporter settings");
+        }
+        this.threads = threads;
+        this.prefetch = Math.max(prefetch, threads);
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Exports attachments from documents in a collection. 
+     * It must be called in a Domino thread.
+     *
+     * @param docs
+     *            documents with attachments
+     * @param fieldName
+     *            a field where attachments are stored
+     * @param out
+     *            an output stream; it isn't closed
+     * @throws IOException
+     */
+    public void export(final DocumentCollection docs, 
+            final String fieldName,
+            final OutputStream out) throws IOException {
+        Database db = docs.getParent();
+        List<String> unids = new ArrayList<>(docs.getCount());
+        for (Document doc : docs) {
+            unids.add(doc.getUniversalID());
+        }
+        export(new DBPath(db.getServer(), db.getFilePath(), null), unids, fieldName, out);
+    }
+
+    /**
+     * Exports attachments from documents with given UNIDs. 
+     * Documents which doesn't exist, doesn't have the field or have it 
+     * neither in MIME nor in rich text format are skipped.
+     *
+     * @param db
+     *            a database with documents
+     * @param unids
+     *            universal IDs of documents
+     * @param fieldName
+     *            a field where attachments are stored
+     * @param out
+     *            an output stream; it isn't closed
+     * @throws IOException
+     */
+    public void export(final DBPath db, 
+            final List<String> unids, 
+            final String fieldName,
+            final OutputStream out) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, 
+                DominoRunner.newThreadFactory("ZipExport"));
+        Deque<Future<Spool>> pending = new ArrayDeque<>();
+        Set<String> names = new HashSet<>();
+        Set<Spool> spools = ConcurrentHashMap.newKeySet();
+        AtomicBoolean aborted = new AtomicBoolean();
+        // each reader thread opens the database once
+        ThreadLocal<Database> database = ThreadLocal.withInitial(() -> DominoRunner.getDatabase(db));
+        ZipOutputStream zip = new ZipOutputStream(out);
+        try {
+            int next = 0;
+            while (next < unids.size() || !pending.isEmpty()) {
+                while (next < unids.size() && pending.size() < prefetch) {
+                    String unid = unids.get(next++);
+                    pending.add(executor.submit(() -> read(database, unid, fieldName, spools, aborted)));
+                }
+                Spool spool = get(pending.removeFirst());
+                try {
+                    spool.writeTo(zip, names);
+                } finally {
+                    spools.remove(spool);
+                    spool.data.reset();
+                }
+            }
+            zip.finish();
+            zip.flush();
+        } finally {
+            // readers still running reset their spools when they see the flag
+            aborted.set(true);
+            executor.shutdownNow();
+            for (Future<Spool> future : pending) {
+                future.cancel(true);
+            }
+            for (Spool spool : spools) {
+                spool.data.reset();
+            }
+        }
+    }
+
+    private static Spool get(final Future<Spool> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("export interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("error reading attachments", e.getCause());
+        }
+    }
+
+    /**
+     * Reads all attachments of a document into a spool. The spool is 
+     * registered in <code>spools</code> until the writer releases it;
+     * it's reset here if the export is aborted or reading fails.
+     */
+    private Spool read(final ThreadLocal<Database> db, 
+            final String unid, 
+            final String fieldName,
+            final Set<Spool> spools,
+            final AtomicBoolean aborted) throws IOException {
+        Spool spool = new Spool(new FileBackedOutputStream(memoryThreshold, true));
+        spools.add(spool);
+        boolean done = false;
+        try {
+            Database database = db.get();
+            Document doc = database == null ? null : database.getDocumentByUNID(unid);
+            Item item = doc == null ? null : doc.getFirstItem(fieldName);
+            if (item == null) {
+                LOG.warn("no attachments in {} on doc={}", fieldName, unid);
+            } else if (item.getTypeEx() == Item.Type.MIME_PART) {
+                // one attachment at a time, parseAttachments would detach all of them
+                try {
+                    Attachment.walkMime(doc, item.getMIMEEntity(), (entity, headers) -> {
+                        copy(new MimeAttachment(doc, entity, headers), spool);
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } finally {
+                    doc.closeMIMEEntities(false, fieldName);
+                }
+            } else if (item.getTypeEx() != Item.Type.RICHTEXT) {
+                LOG.warn("{} on doc={} is neither MIME nor rich text, skipped", fieldName, unid);
+            } else {
+                for (Attachment att : Attachment.parseAttachments(doc, fieldName)) {
+                    copy(att, spool);
+                }
+            }
+            done = true;
+        } finally {
+            if (!done || aborted.get()) {
+                spools.remove(spool);
+                spool.data.reset();
+            }
+        }
+        return spool;
+    }
+
+    /**
+     * Copies an attachment to a spool and closes it.
+     */
+    private static void copy(final Attachment att, final Spool spool) {
+        try {
+            InputStream stream = att.getStream();
+            try {
+                long length = ByteStreams.copy(stream, spool.data);
+                spool.add(att.getFileName(), length);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't copy attachment " + att.getFileName(), e);
+        } finally {
+            att.close();
+        }
+    }
+
+    /**
+     * Contents of attachments from one document stored one after another.
+     */
+    private static class Spool {
+        private final FileBackedOutputStream data;
+        private final List<String> fileNames = new ArrayList<>();
+        private final List<Long> lengths = new ArrayList<>();
+
+        Spool(final FileBackedOutputStream data) {
+            this.data = data;
+        }
+
+        void add(final String fileName, final long length) {
+            fileNames.add(fileName);
+            lengths.add(length);
+        }
+
+        void writeTo(final ZipOutputStream zip, final Set<String> names) throws IOException {
+            long offset = 0;
+            for (int i = 0; i < fileNames.size(); i++) {
+                long length = lengths.get(i);
+                zip.putNextEntry(new ZipEntry(uniqueName(fileNames.get(i), names)));
+                data.asByteSource().slice(offset, length).copyTo(zip);
+                zip.closeEntry();
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * Returns a name of an entry which isn't used in an archive. 
+     * Directories are removed from a file name so entries can't be 
+     * extracted outside of a target directory.
+     */
+    static String uniqueName(final String fileName, final Set<String> names) {
+        String name = fileName == null ? "" : fileName;
+        int separator = Math.max(name.lastIndexOf('/'), 
+                Math.max(name.lastIndexOf('\\'), name.lastIndexOf(':')));
+        name = name.substring(separator + 1).trim();
+        if (name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+            name = "file";
+        }
+        String base = name;
+        String ext = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            base = name.substring(0, dot);
+            ext = name.substring(dot);
+        }
+        int n = 1;
+        while (!names.add(name.toLowerCase(Locale.ROOT))) {
+            name = base + " (" + n++ + ")" + ext;
+        }
+        return name;
+    }
+
+}
@@ -0,0 +1,164 @@
+package org.openntf.tiles.document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openntf.domino.Stream;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * A strategy of storing content detached from Domino.
+ * <ul>
+ * <li>content up to <code>heapLimit</code> bytes is stored on the heap</li>
+ * <li>content up to <code>directLimit</code> bytes is stored in pooled
+ * direct buffers</li>
+ * <li>larger content is stored in a memory-mapped temporary file</li>
+ * </ul>
+ * Pooled buffers are returned to the pool when a content and all its 
+ * streams are closed.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class ContentStorage {
+
+    public static final int DEFAULT_HEAP_LIMIT = 64 * 1024;
+
+    public static final int DEFAULT_DIRECT_LIMIT = 8 * 1024 * 1024;
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_POOL_SIZE = 256;
+
+    private static volatile ContentStorage defaultStorage = new ContentStorage(
+            DEFAULT_HEAP_LIMIT, DEFAULT_DIRECT_LIMIT, DEFAULT_CHUNK_SIZE, DEFAULT_POOL_SIZE, null);
+
+    private final int heapLimit;
+    private final int directLimit;
+    private final int chunkSize;
+    private final int poolSize;
+    private final File tempDir;
+
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Constructs a new instance of {@link ContentStorage}.
+     *
+     * @param heapLimit
+     *            maximum size of content stored on the heap
+     * @param directLimit
+     *            maximum size of content stored in direct buffers
+     * @param chunkSize
+     *            size of one direct buffer
+     * @param poolSize
+     *            maximum number of direct buffers kept for reuse
+     * @param tempDir
+     *            a directory for temporary files, null for the default
+     */
+    public ContentStorage(final int heapLimit, 
+            final int directLimit, 
+            final int chunkSize,
+            final int poolSize, 
+            final File tempDir) {
+        this.heapLimit = heapLimit;
+        this.directLimit = directLimit;
+        this.chunkSize = chunkSize;
+        this.poolSize = poolSize;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Returns the storage used by attachments.
+     * @return the default storage
+     */
+    public static ContentStorage getDefault() {
+        return defaultStorage;
+    }
+
+    public static void setDefault(final ContentStorage storage) {
+        defaultStorage = storage;
+    }
+
+    /**
+     * Copies contents of a Domino stream.
+     *
+     * @param stream
+     *            a stream with content
+     * @return detached content
+     * @throws IOException
+     */
+    public DetachedContent store(final Stream stream) throws IOException {
+        int size = stream.getBytes();
+        DetachedContent.Writer writer = newWriter(size);
+        try {
+            stream.getContents(writer);
+            return writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies contents of an input stream.
+     *
+     * @param is
+     *            a stream with content
+     * @param size
+     *            length of the content
+     * @return detached content
+     * @throws IOException
+     */
+    public DetachedContent store(final InputStream is, final int size) throws IOException {
+        DetachedContent.Writer writer = newWriter(size);
+        try {
+            ByteStreams.copy(ByteStreams.limit(is, size), writer);
+            return writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.discard();
+            throw e;
+        }
+    }
+
+    private DetachedContent.Writer newWriter(final int size) throws IOException {
+        if (size <= heapLimit) {
+            return DetachedContent.Heap.writer(size);
+        } else if (size <= directLimit) {
+            return DetachedContent.Direct.writer(this);
+        } else {
+            return DetachedContent.Mapped.writer(tempDir, size);
+        }
+    }
+
+    /**
+     * Takes a direct buffer from the pool or allocates a new one.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buf = pool.poll();
+        if (buf == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        pooled.decrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Returns a direct buffer to the pool.
+     */
+    void release(final ByteBuffer buf) {
+        if (pooled.incrementAndGet() <= poolSize) {
+            buf.clear();
+            pool.offer(buf);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,413 @@
+package org.openntf.tiles.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.FinalizablePhantomReference;
+import com.google.common.base.FinalizableReferenceQueue;
+import com.google.common.collect.Sets;
+
+/**
+ * Content of a file copied from Domino and detached from a Domino thread.
+ * Depending on a size the content is stored on the Java heap, in direct
+ * buffers or in a memory-mapped temporary file. The content should be
+ * closed when it's not needed anymore to release the storage. 
+ * The storage is released when the content and all streams returned by 
+ * {@link #getStream()} are closed. Temporary files of a content which 
+ * is never closed are deleted when the content is garbage collected 
+ * or when the JVM exits.
+ *
+ * @author Mariusz Jakubowski
+ * @see ContentStorage
+ */
+public abstract class DetachedContent implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DetachedContent.class);
+
+    protected final int size;
+
+    protected volatile boolean closed;
+
+    private int refs = 1;
+
+    protected DetachedContent(final int size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns a new stream reading the content from the beginning.
+     *
+     * @return stream of bytes
+     */
+    public abstract InputStream getStream();
+
+    /**
+     * Returns length of the content in bytes.
+     * @return length of the content
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Closes the content. New streams can't be created after the content 
+     * is closed. The storage is released when all streams returned 
+     * earlier are closed too.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        release();
+    }
+
+    protected void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("content is closed");
+        }
+    }
+
+    /**
+     * Registers a new user of the storage, e.g. an open stream.
+     */
+    protected synchronized void retain() {
+        checkOpen();
+        refs++;
+    }
+
+    /**
+     * Unregisters a user of the storage. The last call frees the storage.
+     */
+    protected void release() {
+        synchronized (this) {
+            if (--refs > 0) {
+                return;
+            }
+        }
+        free();
+    }
+
+    /**
+     * Frees the storage. Called once when the content and all its streams
+     * are closed.
+     */
+    protected void free() {
+    }
+
+    /**
+     * An output stream filling a content.
+     */
+    abstract static class Writer extends OutputStream {
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        /**
+         * Finishes writing.
+         * @return the written content
+         */
+        abstract DetachedContent finish() throws IOException;
+
+        /**
+         * Releases the storage of an unfinished content.
+         */
+        void discard() {
+        }
+    }
+
+    /**
+     * Content stored in a byte array.
+     */
+    static class Heap extends DetachedContent {
+        private final byte[] bytes;
+
+        Heap(final byte[] bytes, final int size) {
+            super(size);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream getStream() {
+            checkOpen();
+            return new ByteArrayInputStream(bytes, 0, size);
+        }
+
+        static Writer writer(final int size) {
+            byte[] bytes = new byte[size];
+            return new Writer() {
+                private int pos;
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    if (pos + len > bytes.length) {
+                        throw new IOException("content longer than " + bytes.length);
+                    }
+                    System.arraycopy(b, off, bytes, pos, len);
+                    pos += len;
+                }
+
+                @Override
+                DetachedContent finish() {
+                    return new Heap(bytes, pos);
+                }
+            };
+        }
+    }
+
+    /**
+     * Content stored in pooled direct buffers.
+     */
+    static class Direct extends DetachedContent {
+        private final ContentStorage storage;
+        private final List<ByteBuffer> chunks;
+
+        Direct(final ContentStorage storage, final List<ByteBuffer> chunks, final int size) {
+            super(size);
+            this.storage = storage;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public InputStream getStream() {
+            retain();
+            List<ByteBuffer> views = new ArrayList<>(chunks.size());
+            for (ByteBuffer chunk : chunks) {
+                ByteBuffer view = chunk.duplicate();
+                view.flip();
+                views.add(view);
+            }
+            return new BuffersInputStream(views, this::release);
+        }
+
+        @Override
+        protected void free() {
+            for (ByteBuffer chunk : chunks) {
+                storage.release(chunk);
+            }
+            chunks.clear();
+        }
+
+        static Writer writer(final ContentStorage storage) {
+            List<ByteBuffer> chunks = new ArrayList<>();
+            return new Writer() {
+                private int size;
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                    int written = 0;
+                    while (written < len) {
+                        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                        if (chunk == null || !chunk.hasRemaining()) {
+                            chunk = storage.acquire();
+                            chunks.add(chunk);
+                        }
+                        int n = Math.min(chunk.remaining(), len - written);
+                        chunk.put(b, off + written, n);
+                        written += n;
+                    }
+                    size += len;
+                }
+
+                @Override
+                DetachedContent finish() {
+                    return new Direct(storage, chunks, size);
+                }
+
+                @Override
+                void discard() {
+                    for (ByteBuffer chunk : chunks) {
+                        storage.release(chunk);
+                    }
+                    chunks.clear();
+                }
+            };
+        }
+    }
+
+    /**
+     * Content stored in a memory-mapped temporary file.
+     */
+    static class Mapped extends DetachedContent {
+        private static final FinalizableReferenceQueue QUEUE = new FinalizableReferenceQueue();
+
+        /** Keeps references reachable until their referents are collected. */
+        private static final Set<Reference<?>> REFERENCES = Sets.newConcurrentHashSet();
+
+        private final File file;
+        private final Reference<?> reference;
+        private volatile MappedByteBuffer buffer;
+
+        Mapped(final File file, final MappedByteBuffer buffer, final int size) {
+            super(size);
+            this.file = file;
+            this.buffer = buffer;
+            this.reference = new FileReference(this, file);
+            REFERENCES.add(reference);
+        }
+
+        @Override
+        public InputStream getStream() {
+            retain();
+            ByteBuffer view = buffer.duplicate();
+            view.position(0);
+            view.limit(size);
+            List<ByteBuffer> views = new ArrayList<>(1);
+            views.add(view);
+            return new BuffersInputStream(views, this::release);
+        }
+
+        @Override
+        protected void free() {
+            buffer = null;
+            REFERENCES.remove(reference);
+            delete(file);
+        }
+
+        private static void delete(final File file) {
+            if (!file.delete()) {
+                // the file can be locked until the mapping is garbage collected,
+                // deleteOnExit was already requested when the file was created
+                LOG.debug("can't delete {} now", file);
+            }
+        }
+
+        /**
+         * Deletes the file of a content which wasn't closed.
+         */
+        private static class FileReference extends FinalizablePhantomReference<Mapped> {
+            private final File file;
+
+            FileReference(final Mapped content, final File file) {
+                super(content, QUEUE);
+                this.file = file;
+            }
+
+            @Override
+            public void finalizeReferent() {
+                REFERENCES.remove(this);
+                LOG.debug("deleting {} of unclosed content", file);
+                delete(file);
+            }
+        }
+
+        static Writer writer(final File dir, final int size) throws IOException {
+            File file = File.createTempFile("tiles", ".tmp", dir);
+            file.deleteOnExit();
+            MappedByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    FileChannel channel = raf.getChannel()) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+            return new Writer() {
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    if (len > buffer.remaining()) {
+                        throw new IOException("content longer than " + size);
+                    }
+                    buffer.put(b, off, len);
+                }
+
+                @Override
+                DetachedContent finish() {
+                    return new Mapped(file, buffer, buffer.position());
+                }
+
+                @Override
+                void discard() {
+                    delete(file);
+                }
+            };
+        }
+    }
+
+    /**
+     * A stream reading a sequence of buffers. The buffers can't be read
+     * after the stream is closed.
+     */
+    private static class BuffersInputStream extends InputStream {
+        private final List<ByteBuffer> buffers;
+        private final Runnable onClose;
+        private int idx;
+        private boolean closed;
+
+        BuffersInputStream(final List<ByteBuffer> buffers, final Runnable onClose) {
+            this.buffers = buffers;
+            this.onClose = onClose;
+        }
+
+        private ByteBuffer current() throws IOException {
+            if (closed) {
+                throw new IOException("stream is closed");
+            }
+            while (idx < buffers.size() && !buffers.get(idx).hasRemaining()) {
+                idx++;
+            }
+            return idx < buffers.size() ? buffers.get(idx) : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ByteBuffer buf = current();
+            return buf == null ? -1 : buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            ByteBuffer buf = current();
+            if (len == 0) {
+                return 0;
+            }
+            if (buf == null) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                throw new IOException("stream is closed");
+            }
+            long n = 0;
+            for (int i = idx; i < buffers.size(); i++) {
+                n += buffers.get(i).remaining();
+            }
+            return (int) Math.min(n, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                buffers.clear();
+                onClose.run();
+            }
+        }
+    }
+
+}
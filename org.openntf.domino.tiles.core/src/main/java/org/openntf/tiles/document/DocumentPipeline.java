@@ -0,0 +1,392 @@
+package org.openntf.tiles.document;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.View;
+import org.openntf.tiles.config.DBPath;
+import org.openntf.tiles.runner.DominoRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.FinalizablePhantomReference;
+import com.google.common.base.FinalizableReferenceQueue;
+import com.google.common.collect.Sets;
+
+/**
+ * Streams documents from a view or a search result as 
+ * {@link DocumentSnapshot}s.
+ * <p>
+ * Documents are read ahead in batches by a producer Domino thread into
+ * a bounded queue. The returned stream can be processed in parallel
+ * on ordinary threads, eg. <code>pipeline.fromView(db, "All").parallel()
+ * .forEach(...)</code>. The stream should be closed when it isn't 
+ * fully consumed to stop the producer. A producer of a stream which
+ * isn't closed, eg. after <code>findFirst()</code>, stops when the stream
+ * is garbage collected or when no batch is taken for <code>timeout</code>;
+ * consuming the stream after the timeout throws an exception.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class DocumentPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentPipeline.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_PREFETCH = 4;
+
+    public static final long DEFAULT_TIMEOUT_SECONDS = 300;
+
+    /** Marks the end of documents in a queue. */
+    private static final List<DocumentSnapshot> END = new ArrayList<>(0);
+
+    /** Polling interval of blocked producers and consumers. */
+    private static final long POLL_MILLIS = 100;
+
+    private static final FinalizableReferenceQueue QUEUE = new FinalizableReferenceQueue();
+
+    /** Keeps references reachable until their referents are collected. */
+    private static final Set<Reference<?>> REFERENCES = Sets.newConcurrentHashSet();
+
+    private final int batchSize;
+
+    private final int prefetch;
+
+    private final long timeoutNanos;
+
+    /**
+     * Constructs a pipeline with default batch size and prefetch.
+     */
+    public DocumentPipeline() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_PREFETCH);
+    }
+
+    /**
+     * Constructs a new instance of {@link DocumentPipeline}.
+     *
+     * @param batchSize
+     *            number of documents in a batch
+     * @param prefetch
+     *            number of batches read ahead
+     */
+    public DocumentPipeline(final int batchSize, final int prefetch) {
+        this(batchSize, prefetch, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Constructs a new instance of {@link DocumentPipeline}.
+     *
+     * @param batchSize
+     *            number of documents in a batch
+     * @param prefetch
+     *            number of batches read ahead
+     * @param timeout
+     *            maximum time a producer waits for a consumer to take 
+     *            a batch before it stops
+     * @param unit
+     *            a time unit of the timeout
+     */
+    public DocumentPipeline(final int batchSize, 
+            final int prefetch, 
+            final long timeout, 
+            final TimeUnit unit) {
+        if (batchSize < 1 || prefetch < 1 || timeout < 1) {
+            throw new IllegalArgumentException("batchSize, prefetch and timeout must be positive");
+        }
+        this.batchSize = batchSize;
+        this.prefetch = prefetch;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Streams all documents from a view in the view order.
+     *
+     * @param db
+     *            a database
+     * @param viewName
+     *            a name of a view
+     * @param itemNames
+     *            names of items to copy; all items are copied if empty
+     * @return a stream of snapshots
+     */
+    public Stream<DocumentSnapshot> fromView(final DBPath db, 
+            final String viewName,
+            final String... itemNames) {
+        return stream(db, itemNames, (database, sink) -> {
+            View view = database.getView(viewName);
+            if (view == null) {
+                throw new IllegalArgumentException("no view named " + viewName
+                        + " in db=" + db);
+            }
+            view.setAutoUpdate(false);
+            Document doc = view.getFirstDocument();
+            while (doc != null && sink.test(doc)) {
+                doc = view.getNextDocument(doc);
+            }
+        });
+    }
+
+    /**
+     * Streams all documents matching a search formula.
+     *
+     * @param db
+     *            a database
+     * @param formula
+     *            a selection formula
+     * @param itemNames
+     *            names of items to copy; all items are copied if empty
+     * @return a stream of snapshots
+     */
+    public Stream<DocumentSnapshot> fromSearch(final DBPath db, 
+            final String formula,
+            final String... itemNames) {
+        return stream(db, itemNames, (database, sink) -> {
+            for (Document doc : database.search(formula)) {
+                if (!sink.test(doc)) {
+                    break;
+                }
+            }
+        });
+    }
+
+    private Stream<DocumentSnapshot> stream(final DBPath db, 
+            final String[] itemNames,
+            final Source source) {
+        Producer producer = new Producer(db, itemNames, source);
+        producer.start();
+        BatchSpliterator spliterator = new BatchSpliterator(producer);
+        REFERENCES.add(new AbandonedReference(spliterator, producer));
+        return StreamSupport.stream(spliterator, false)
+                .onClose(producer::cancel);
+    }
+
+    /**
+     * Stops a producer when its stream is garbage collected without 
+     * being closed.
+     */
+    private static class AbandonedReference extends FinalizablePhantomReference<BatchSpliterator> {
+        private final Producer producer;
+
+        AbandonedReference(final BatchSpliterator spliterator, final Producer producer) {
+            super(spliterator, QUEUE);
+            this.producer = producer;
+        }
+
+        @Override
+        public void finalizeReferent() {
+            REFERENCES.remove(this);
+            producer.cancel();
+        }
+    }
+
+    /**
+     * Reads documents from a database.
+     */
+    private interface Source {
+        /**
+         * Passes documents to a sink until it returns false.
+         */
+        void read(Database db, Predicate<Document> sink);
+    }
+
+    /**
+     * A Domino thread reading documents into a queue.
+     */
+    private class Producer extends Thread {
+        private final DBPath db;
+        private final String[] itemNames;
+        private final Source source;
+        private final BlockingQueue<List<DocumentSnapshot>> queue;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        Producer(final DBPath db, final String[] itemNames, final Source source) {
+            this.db = db;
+            this.itemNames = itemNames;
+            this.source = source;
+            this.queue = new ArrayBlockingQueue<>(prefetch);
+            setDaemon(true);
+            setName("DocumentPipeline " + db);
+        }
+
+        @Override
+        public void run() {
+            try {
+                DominoRunner.runDomino(() -> {
+                    Database database = DominoRunner.getSession()
+                            .getDatabase(db.getServer(), db.getPath());
+                    if (database == null) {
+                        throw new IllegalArgumentException("can't open db=" + db);
+                    }
+                    List<DocumentSnapshot> batch = new ArrayList<>(batchSize);
+                    source.read(database, doc -> {
+                        batch.add(DocumentSnapshot.of(doc, itemNames));
+                        if (batch.size() >= batchSize) {
+                            put(new ArrayList<>(batch));
+                            batch.clear();
+                        }
+                        return !cancelled;
+                    });
+                    if (!batch.isEmpty()) {
+                        put(batch);
+                    }
+                    return null;
+                });
+            } catch (Throwable e) {
+                LOG.error("error reading documents from {}", db, e);
+                error = e;
+            } finally {
+                put(END);
+            }
+        }
+
+        /**
+         * Puts a batch into the queue waiting for space unless cancelled.
+         * Stops the producer if no batch is taken before the timeout.
+         */
+        private void put(final List<DocumentSnapshot> batch) {
+            long start = System.nanoTime();
+            try {
+                while (!cancelled) {
+                    if (queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                    if (System.nanoTime() - start > timeoutNanos) {
+                        LOG.warn("documents from {} not consumed in {} s, stopping", 
+                                db, TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+                        error = new IllegalStateException("documents not consumed in time");
+                        cancel();
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancelled = true;
+            }
+        }
+
+        /**
+         * Returns next batch or {@link #END}. Waits until a batch is 
+         * available or the producer is cancelled.
+         */
+        List<DocumentSnapshot> take() {
+            try {
+                while (true) {
+                    if (cancelled) {
+                        checkError();
+                        return END;
+                    }
+                    List<DocumentSnapshot> batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (batch == END) {
+                        checkError();
+                    }
+                    if (batch != null) {
+                        return batch;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return END;
+            }
+        }
+
+        private void checkError() {
+            if (error != null) {
+                throw new IllegalStateException("error reading documents from " + db, error);
+            }
+        }
+
+        /**
+         * Stops the producer and wakes up a waiting consumer.
+         */
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+            queue.offer(END);
+        }
+    }
+
+    /**
+     * A spliterator over batches taken from a producer. Splitting hands 
+     * out whole batches so they can be processed in parallel.
+     */
+    private static class BatchSpliterator implements Spliterator<DocumentSnapshot> {
+        private final Producer producer;
+        private List<DocumentSnapshot> current;
+        private Iterator<DocumentSnapshot> iterator;
+        private boolean finished;
+
+        BatchSpliterator(final Producer producer) {
+            this.producer = producer;
+        }
+
+        /**
+         * Makes sure that there is a current batch with remaining elements.
+         * @return false if there are no more documents
+         */
+        private boolean fill() {
+            while (iterator == null || !iterator.hasNext()) {
+                if (finished) {
+                    return false;
+                }
+                current = producer.take();
+                if (current == END) {
+                    finished = true;
+                    current = null;
+                    iterator = null;
+                    return false;
+                }
+                iterator = current.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super DocumentSnapshot> action) {
+            if (!fill()) {
+                return false;
+            }
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public Spliterator<DocumentSnapshot> trySplit() {
+            if (!fill()) {
+                return null;
+            }
+            // hand out the rest of a current batch; it precedes next batches
+            List<DocumentSnapshot> prefix = new ArrayList<>();
+            iterator.forEachRemaining(prefix::add);
+            iterator = null;
+            current = null;
+            return Spliterators.spliterator(prefix, ORDERED | NONNULL | IMMUTABLE);
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+package org.openntf.tiles.document;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import org.openntf.domino.DateTime;
+import org.openntf.domino.Document;
+import org.openntf.domino.Item;
+
+/**
+ * An immutable copy of document values detached from a Domino thread.
+ * Instances can be safely cached and passed between threads.
+ * <p>
+ * Values are stored in arrays: numbers as <code>double[]</code>, 
+ * dates as <code>long[]</code> with milliseconds since epoch 
+ * and other values as <code>String[]</code>.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public final class DocumentSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final AttachmentInfo[] NO_ATTACHMENTS = new AttachmentInfo[0];
+
+    private final String universalID;
+
+    private final long lastModified;
+
+    /** Names of items sorted case insensitive. */
+    private final String[] names;
+
+    /** Values of items, the same order as names. */
+    private final Object[] values;
+
+    private final AttachmentInfo[] attachments;
+
+    private DocumentSnapshot(final String universalID,
+            final long lastModified,
+            final Map<String, Object> items,
+            final AttachmentInfo[] attachments) {
+        this.universalID = universalID;
+        this.lastModified = lastModified;
+        this.names = items.keySet().toArray(NO_NAMES);
+        this.values = items.values().toArray();
+        this.attachments = attachments;
+    }
+
+    /**
+     * Creates a snapshot of a document.
+     *
+     * @param doc
+     *            a document to copy
+     * @param itemNames
+     *            names of items to copy; all items are copied if empty
+     * @return a snapshot of a document
+     */
+    public static DocumentSnapshot of(final Document doc, final String... itemNames) {
+        return of(doc, itemNames, NO_NAMES);
+    }
+
+    /**
+     * Creates a snapshot of a document together with information 
+     * about attachments.
+     *
+     * @param doc
+     *            a document to copy
+     * @param itemNames
+     *            names of items to copy; all items are copied if empty
+     * @param attachmentFields
+     *            names of fields containing attachments
+     * @return a snapshot of a document
+     * @see Attachment#describeAttachments(Document, String)
+     */
+    public static DocumentSnapshot of(final Document doc, 
+            final String[] itemNames,
+            final String... attachmentFields) {
+        Map<String, Object> items = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (itemNames == null || itemNames.length == 0) {
+            for (Item item : doc.getItems()) {
+                putValues(items, item.getName(), item.getValues());
+            }
+        } else {
+            for (String name : itemNames) {
+                if (doc.hasItem(name)) {
+                    putValues(items, name, doc.getItemValue(name));
+                }
+            }
+        }
+        AttachmentInfo[] attachments = NO_ATTACHMENTS;
+        if (attachmentFields != null && attachmentFields.length > 0) {
+            List<AttachmentInfo> infos = new ArrayList<>();
+            for (String field : attachmentFields) {
+                if (doc.hasItem(field)) {
+                    infos.addAll(Attachment.describeAttachments(doc, field));
+                }
+            }
+            attachments = infos.toArray(NO_ATTACHMENTS);
+        }
+        Date modified = doc.getLastModifiedDate();
+        return new DocumentSnapshot(doc.getUniversalID(), 
+                modified == null ? 0 : modified.getTime(), 
+                items, 
+                attachments);
+    }
+
+    /**
+     * Converts Domino values to an array of primitive values.
+     */
+    private static void putValues(final Map<String, Object> items, 
+            final String name,
+            final Vector<Object> vals) {
+        if (vals == null || items.containsKey(name)) {
+            return;
+        }
+        int n = vals.size();
+        if (n > 0 && vals.get(0) instanceof Number) {
+            double[] arr = new double[n];
+            for (int i = 0; i < n; i++) {
+                arr[i] = ((Number) vals.get(i)).doubleValue();
+            }
+            items.put(name, arr);
+        } else if (n > 0 && (vals.get(0) instanceof DateTime || vals.get(0) instanceof Date)) {
+            long[] arr = new long[n];
+            for (int i = 0; i < n; i++) {
+                Object val = vals.get(i);
+                if (val instanceof DateTime) {
+                    val = ((DateTime) val).toJavaDate();
+                }
+                arr[i] = val == null ? 0 : ((Date) val).getTime();
+            }
+            items.put(name, arr);
+        } else {
+            String[] arr = new String[n];
+            for (int i = 0; i < n; i++) {
+                Object val = vals.get(i);
+                arr[i] = val == null ? "" : val.toString();
+            }
+            items.put(name, arr);
+        }
+    }
+
+    private Object find(final String name) {
+        int idx = Arrays.binarySearch(names, name, String.CASE_INSENSITIVE_ORDER);
+        return idx < 0 ? null : values[idx];
+    }
+
+    public String getUniversalID() {
+        return universalID;
+    }
+
+    /**
+     * Returns time when the document was last modified.
+     * @return milliseconds since epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns names of items stored in this snapshot.
+     * @return names of items
+     */
+    public List<String> getItemNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public boolean hasItem(final String name) {
+        return find(name) != null;
+    }
+
+    /**
+     * Returns values of an item. Numbers are returned as {@link Double}, 
+     * dates as {@link Date}, other values as {@link String}.
+     * @param name a name of an item
+     * @return values of an item or empty list if item doesn't exists
+     */
+    public List<Object> getItemValue(final String name) {
+        Object val = find(name);
+        List<Object> ret = new ArrayList<>();
+        if (val instanceof double[]) {
+            for (double d : (double[]) val) {
+                ret.add(d);
+            }
+        } else if (val instanceof long[]) {
+            for (long l : (long[]) val) {
+                ret.add(new Date(l));
+            }
+        } else if (val instanceof String[]) {
+            ret.addAll(Arrays.asList((String[]) val));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns first value of an item as a string.
+     * @param name a name of an item
+     * @return a value of an item or empty string
+     */
+    public String getItemValueString(final String name) {
+        Object val = find(name);
+        if (val instanceof String[]) {
+            String[] arr = (String[]) val;
+            return arr.length == 0 ? "" : arr[0];
+        }
+        List<Object> vals = getItemValue(name);
+        return vals.isEmpty() ? "" : vals.get(0).toString();
+    }
+
+    /**
+     * Returns first value of a numeric item.
+     * @param name a name of an item
+     * @return a value of an item or 0 if item isn't numeric
+     */
+    public double getItemValueDouble(final String name) {
+        Object val = find(name);
+        if (val instanceof double[] && ((double[]) val).length > 0) {
+            return ((double[]) val)[0];
+        }
+        return 0;
+    }
+
+    /**
+     * Returns values of a numeric item.
+     * @param name a name of an item
+     * @return a copy of values or empty array if item isn't numeric
+     */
+    public double[] getItemValueDoubles(final String name) {
+        Object val = find(name);
+        return val instanceof double[] ? ((double[]) val).clone() : new double[0];
+    }
+
+    /**
+     * Returns first value of a date item.
+     * @param name a name of an item
+     * @return a value of an item or null if item isn't a date
+     */
+    public Date getItemValueDate(final String name) {
+        Object val = find(name);
+        if (val instanceof long[] && ((long[]) val).length > 0) {
+            return new Date(((long[]) val)[0]);
+        }
+        return null;
+    }
+
+    /**
+     * Returns values of a date item.
+     * @param name a name of an item
+     * @return a copy of values as milliseconds since epoch or empty array 
+     *          if item isn't a date
+     */
+    public long[] getItemValueMillis(final String name) {
+        Object val = find(name);
+        return val instanceof long[] ? ((long[]) val).clone() : new long[0];
+    }
+
+    /**
+     * Returns information about attachments.
+     * @return a list of attachments
+     */
+    public List<AttachmentInfo> getAttachments() {
+        return Collections.unmodifiableList(Arrays.asList(attachments));
+    }
+
+    /**
+     * Returns information about attachments stored in a field.
+     * @param fieldName a name of a field
+     * @return a list of attachments
+     */
+    public List<AttachmentInfo> getAttachments(final String fieldName) {
+        List<AttachmentInfo> ret = new ArrayList<>();
+        for (AttachmentInfo att : attachments) {
+            if (att.getFieldName().equalsIgnoreCase(fieldName)) {
+                ret.add(att);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "[DocumentSnapshot " + universalID + ", items=" + Arrays.toString(names) 
+            + ", attachments=" + attachments.length + "]";
+    }
+
+}
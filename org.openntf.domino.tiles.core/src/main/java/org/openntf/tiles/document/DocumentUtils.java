@@ -5,6 +5,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.openntf.domino.Document;
@@ -17,6 +24,13 @@ import org.openntf.domino.MIMEHeader;
 import org.openntf.domino.RichTextItem;
 import org.openntf.domino.Session;
 import org.openntf.domino.Stream;
+import org.openntf.tiles.jfr.DominoEvent;
+import org.openntf.tiles.jfr.DominoEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.FileBackedOutputStream;
 
 
 /**
@@ -27,6 +41,29 @@ import org.openntf.domino.Stream;
  */
 public class DocumentUtils {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentUtils.class);
+
+    /** Size of compressed content kept in memory before using a temporary file. */
+    private static final int COMPRESSION_BUFFER = 1024 * 1024;
+
+    /** Headers copied with content of an attachment entity. */
+    private static final String[] COPIED_HEADERS = {"Content-Disposition", "Content-ID", 
+        MimeAttachment.ENCODING_HEADER, MimeAttachment.SIZE_HEADER};
+
+    private static volatile int compressionThreshold = -1;
+
+    /** Non-text types worth compressing. */
+    private static final ImmutableSet<String> COMPRESSIBLE_TYPES = ImmutableSet.of(
+            "application/xml", "application/json", 
+            "application/javascript", "application/x-javascript");
+
+    /** Types which are already compressed. */
+    private static final ImmutableSet<String> ARCHIVE_TYPES = ImmutableSet.of(
+            "application/zip", "application/x-zip-compressed", "application/gzip", 
+            "application/x-gzip", "application/x-compress", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/x-bzip2", "application/java-archive",
+            "application/epub+zip");
+
     /**
      * Removes all items from a document with given name.
      *
@@ -128,6 +165,117 @@ public class DocumentUtils {
             final String fieldName, 
             final Stream stream, 
             final String fileName) {
+        DominoEvent event = DominoEvents.document("add").document(doc).fileName(fileName);
+        if (event.isEnabled()) {
+            event.bytes(stream.getBytes());
+        }
+        MIMEEntity body = getMIMEBody(doc, fieldName);
+        Stream content = createMIMEAttachment(doc, body, stream, fileName);
+        doc.closeMIMEEntities(true, fieldName);
+        stream.close();
+        if (content != stream) {
+            content.close();
+        }
+        event.commit();
+    }
+
+    /**
+     * Enables compression of attachments added to MIME fields. 
+     * Text files (text, CSV, XML, JSON etc.) not smaller than the threshold 
+     * are stored compressed with gzip and marked with 
+     * {@link MimeAttachment#ENCODING_HEADER}. {@link MimeAttachment}
+     * decompresses them transparently.
+     *
+     * @param threshold
+     *            minimum size of a compressed file in bytes; 
+     *            a negative value disables compression
+     */
+    public static void setCompressionThreshold(final int threshold) {
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * Checks if a file should be compressed based on its MIME type.
+     * Text, XML and JSON types are compressed. Archives, including office 
+     * documents which are ZIP containers, aren't.
+     *
+     * @param fileName
+     *            a name of a file
+     * @return true if a file is compressible
+     */
+    static boolean isCompressible(final String fileName) {
+        String mime = Attachment.guessMIME(fileName).toLowerCase(Locale.ROOT);
+        int semicolon = mime.indexOf(';');
+        if (semicolon >= 0) {
+            mime = mime.substring(0, semicolon).trim();
+        }
+        if (mime.startsWith("application/vnd.openxmlformats")
+                || mime.startsWith("application/vnd.oasis.opendocument")
+                || ARCHIVE_TYPES.contains(mime)) {
+            return false;
+        }
+        if (mime.startsWith("text/") || COMPRESSIBLE_TYPES.contains(mime)
+                || mime.endsWith("+xml") || mime.endsWith("+json")) {
+            return true;
+        }
+        String name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".json") || name.endsWith(".csv") || name.endsWith(".xml")
+                || name.endsWith(".txt") || name.endsWith(".svg") || name.endsWith(".js")
+                || name.endsWith(".css") || name.endsWith(".log");
+    }
+
+    /**
+     * Compresses contents of a stream if compression is enabled and 
+     * a file is compressible.
+     *
+     * @param stream
+     *            a stream with contents of a file
+     * @param fileName
+     *            a name of a file
+     * @return a new stream with compressed content or null
+     */
+    private static Stream compress(final Session session, 
+            final Stream stream, 
+            final String fileName) {
+        int threshold = compressionThreshold;
+        int size = stream.getBytes();
+        if (threshold < 0 || size < threshold || !isCompressible(fileName)) {
+            return null;
+        }
+        FileBackedOutputStream buf = new FileBackedOutputStream(COMPRESSION_BUFFER, true);
+        try {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buf)) {
+                stream.setPosition(0);
+                stream.getContents(gzip);
+            }
+            Stream compressed = session.createStream();
+            try (InputStream is = buf.asByteSource().openStream()) {
+                compressed.setContents(is);
+            }
+            return compressed;
+        } catch (IOException e) {
+            LOG.warn("can't compress {}", fileName, e);
+            return null;
+        } finally {
+            try {
+                buf.reset();
+            } catch (IOException e) {
+                LOG.warn("can't delete temporary file", e);
+            }
+        }
+    }
+
+    /**
+     * Returns a multipart MIME entity stored in a field. If the field doesn't
+     * exist or isn't in MIME format, a new entity is created.
+     *
+     * @param doc
+     *            a document
+     * @param fieldName
+     *            a name of a field
+     * @return a MIME entity
+     */
+    private static MIMEEntity getMIMEBody(final Document doc, final String fieldName) {
         Item item = doc.getFirstItem(fieldName);
         MIMEEntity body = null;
         if (item != null) {
@@ -140,9 +288,73 @@ public class DocumentUtils {
             MIMEHeader header = body.createHeader("Content-Type");
             header.setHeaderVal("multipart/mixed");
         }
+        return body;
+    }
 
+    /**
+     * Creates a child entity with an attachment.
+     *
+     * @param doc
+     *            a document where to add an attachment
+     * @param body
+     *            a multipart MIME entity
+     * @param stream
+     *            an attachment content
+     * @param fileName
+     *            a file name of an attachment
+     * @return a stream set as content of the entity; it must be closed 
+     *          after MIME entities are closed
+     */
+    private static Stream createMIMEAttachment(final Document doc, 
+            final MIMEEntity body, 
+            final Stream stream, 
+            final String fileName) {
+        int size = stream.getBytes();
+        Stream content = compress(doc.getParentDatabase().getParent(), stream, fileName);
+        if (content != null) {
+            createEncodedAttachment(body, content, fileName, "gzip", size);
+        } else {
+            content = stream;
+            MIMEEntity att = body.createChildEntity();
+            att.setContentFromBytes(stream, Attachment.guessMIME(fileName), MIMEEntity.ENC_IDENTITY_BINARY);
+            setDisposition(att, fileName);
+        }
+        return content;
+    }
+
+    /**
+     * Creates a child entity with an already encoded attachment. 
+     * Content is stored as is and marked with 
+     * {@link MimeAttachment#ENCODING_HEADER}.
+     *
+     * @param body
+     *            a multipart MIME entity
+     * @param stream
+     *            encoded content of an attachment
+     * @param fileName
+     *            a file name of an attachment
+     * @param encoding
+     *            a content encoding, eg. gzip
+     * @param size
+     *            a size of an attachment before encoding
+     */
+    private static void createEncodedAttachment(final MIMEEntity body, 
+            final Stream stream, 
+            final String fileName,
+            final String encoding,
+            final int size) {
         MIMEEntity att = body.createChildEntity();
         att.setContentFromBytes(stream, Attachment.guessMIME(fileName), MIMEEntity.ENC_IDENTITY_BINARY);
+        att.createHeader(MimeAttachment.ENCODING_HEADER).setHeaderVal(encoding);
+        att.createHeader(MimeAttachment.SIZE_HEADER).setHeaderVal(Integer.toString(size));
+        setDisposition(att, fileName);
+    }
+
+    /**
+     * Sets Content-Disposition and Content-ID headers of an attachment 
+     * entity.
+     */
+    private static void setDisposition(final MIMEEntity att, final String fileName) {
         String safeFileName = sanitizeFileName(fileName); 
         MIMEHeader header = att.createHeader("Content-Disposition");
         String fileNameB;
@@ -155,8 +367,6 @@ public class DocumentUtils {
         header.setHeaderVal("attachment; filename=\"" + fileNameB + "\"");
         header = att.createHeader("Content-ID");
         header.setHeaderVal(safeFileName);
-        doc.closeMIMEEntities(true, fieldName);
-        stream.close();
     }
 
     /**
@@ -172,6 +382,27 @@ public class DocumentUtils {
     public static void addRTAttachment(final Document doc, 
             final String fieldName, 
             final File file) {
+        DominoEvent event = DominoEvents.document("add").document(doc).fileName(file.getName());
+        RichTextItem rt = getRichTextItem(doc, fieldName);
+        try {
+            rt.embedObject(EmbeddedObject.EMBED_ATTACHMENT, "", file.getCanonicalPath(), null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        event.bytes(file.length()).commit();
+    }
+
+    /**
+     * Returns a rich text item. If the field doesn't exist a new item is 
+     * created. If it isn't a rich text it is converted to rich text.
+     *
+     * @param doc
+     *            a document
+     * @param fieldName
+     *            a name of a field
+     * @return a rich text item
+     */
+    private static RichTextItem getRichTextItem(final Document doc, final String fieldName) {
         Item item = doc.getFirstItem(fieldName);
         if (item != null) {
             if (!(item instanceof RichTextItem)) {
@@ -183,23 +414,254 @@ public class DocumentUtils {
         } else {
             item = doc.createRichTextItem(fieldName);
         }
-        RichTextItem rt = (RichTextItem) item;
+        return (RichTextItem) item;
+    }
+
+    /**
+     * Copies an attachment to a field on another document and saves 
+     * the target document.
+     *
+     * @param source
+     *            an attachment to copy
+     * @param target
+     *            a document where to add an attachment
+     * @param fieldName
+     *            a field where to put an attachment
+     * @throws IOException
+     * @see #copyAttachments(List, Document, String)
+     */
+    public static void copyAttachment(final Attachment source, 
+            final Document target,
+            final String fieldName) throws IOException {
+        copyAttachments(Collections.singletonList(source), target, fieldName);
+    }
+
+    /**
+     * Copies attachments to a field on another document. The document is 
+     * saved once after all attachments are copied.
+     * <p>
+     * If the target field is a rich text field, attachments are embedded
+     * in it. Attachments from rich text are extracted by Domino into
+     * a temporary file, other attachments are copied there with a small 
+     * buffer. Otherwise attachments are added to a MIME field; content is 
+     * streamed into a Domino stream without reading it whole into memory.
+     * Content compressed by {@link #setCompressionThreshold(int)} is 
+     * copied compressed.
+     * <p>
+     * Content of {@link MimeAttachment}s is already detached from its 
+     * document. Use {@link #copyAttachments(Document, String, Document, String)}
+     * to copy between MIME fields without detaching it.
+     *
+     * @param sources
+     *            attachments to copy
+     * @param target
+     *            a document where to add attachments
+     * @param fieldName
+     *            a field where to put attachments
+     * @throws IOException
+     */
+    public static void copyAttachments(final List<Attachment> sources, 
+            final Document target,
+            final String fieldName) throws IOException {
+        DominoEvent event = DominoEvents.document("copy").document(target);
+        Item item = target.getFirstItem(fieldName);
+        if (item != null && item.getTypeEx() == Type.RICHTEXT) {
+            copyToRT(sources, target, fieldName);
+        } else {
+            copyToMIME(sources, target, fieldName);
+        }
+        target.save(true);
+        if (event.isEnabled()) {
+            long bytes = 0;
+            for (Attachment source : sources) {
+                bytes += source.getSize();
+            }
+            event.bytes(bytes);
+        }
+        event.commit();
+    }
+
+    /**
+     * Copies all attachments from a field on one document to a field 
+     * on another document and saves the target document.
+     * <p>
+     * If both fields are MIME fields, content of each entity is copied
+     * into a new entity through a Domino stream, so it doesn't pass through
+     * Java. Encoded content and its headers are copied as they are.
+     * Otherwise attachments are copied like in 
+     * {@link #copyAttachments(List, Document, String)}.
+     *
+     * @param source
+     *            a document with attachments
+     * @param sourceField
+     *            a field with attachments
+     * @param target
+     *            a document where to add attachments
+     * @param fieldName
+     *            a field where to put attachments
+     * @throws IOException
+     */
+    public static void copyAttachments(final Document source, 
+            final String sourceField,
+            final Document target,
+            final String fieldName) throws IOException {
+        Item sourceItem = source.getFirstItem(sourceField);
+        if (sourceItem == null) {
+            throw new NullPointerException("no field named " + sourceField
+                    + " on doc=" + source.getUniversalID());
+        }
+        Item item = target.getFirstItem(fieldName);
+        if (sourceItem.getTypeEx() != Type.MIME_PART 
+                || item != null && item.getTypeEx() == Type.RICHTEXT) {
+            List<Attachment> atts = Attachment.parseAttachments(source, sourceField);
+            try {
+                copyAttachments(atts, target, fieldName);
+            } finally {
+                for (Attachment att : atts) {
+                    att.close();
+                }
+            }
+            return;
+        }
+        DominoEvent event = DominoEvents.document("copy").document(target);
+        Session session = target.getParentDatabase().getParent();
+        MIMEEntity body = getMIMEBody(target, fieldName);
+        List<Stream> streams = new ArrayList<>();
+        long[] bytes = new long[1];
         try {
-            rt.embedObject(EmbeddedObject.EMBED_ATTACHMENT, "", file.getCanonicalPath(), null);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Attachment.walkMime(source, sourceItem.getMIMEEntity(), (entity, headers) -> {
+                Stream stream = session.createStream();
+                streams.add(stream);
+                entity.getContentAsBytes(stream);
+                bytes[0] += stream.getBytes();
+                copyEntity(stream, headers, body);
+            });
+            target.closeMIMEEntities(true, fieldName);
+        } finally {
+            source.closeMIMEEntities(false, sourceField);
+            for (Stream stream : streams) {
+                stream.close();
+            }
         }
+        target.save(true);
+        event.bytes(bytes[0]).commit();
+    }
+
+    /**
+     * Creates a child entity with content and headers of an attachment 
+     * entity.
+     *
+     * @param stream
+     *            content of a source entity
+     * @param headers
+     *            headers of a source entity
+     * @param body
+     *            a multipart MIME entity
+     */
+    private static void copyEntity(final Stream stream, 
+            final Map<String, String> headers,
+            final MIMEEntity body) {
+        String contentType = headers.get("content-type");
+        if (contentType == null) {
+            contentType = Attachment.guessMIME(MimeAttachment.readFileName(headers));
+        }
+        MIMEEntity att = body.createChildEntity();
+        att.setContentFromBytes(stream, contentType, MIMEEntity.ENC_IDENTITY_BINARY);
+        for (String name : COPIED_HEADERS) {
+            String value = headers.get(name.toLowerCase(Locale.ROOT));
+            if (value != null) {
+                att.createHeader(name).setHeaderValAndParams(value);
+            }
+        }
+    }
+
+    private static void copyToMIME(final List<Attachment> sources, 
+            final Document target,
+            final String fieldName) throws IOException {
+        Session session = target.getParentDatabase().getParent();
+        MIMEEntity body = getMIMEBody(target, fieldName);
+        List<Stream> streams = new ArrayList<>(sources.size());
+        try {
+            for (Attachment source : sources) {
+                Stream stream = session.createStream();
+                streams.add(stream);
+                String encoding = source.getContentEncoding();
+                InputStream is = encoding != null ? source.getEncodedStream() : source.getStream();
+                try {
+                    stream.setContents(is);
+                } finally {
+                    is.close();
+                }
+                if (encoding != null) {
+                    // already compressed, don't decode and encode again
+                    createEncodedAttachment(body, stream, source.getFileName(), 
+                            encoding, source.getSize());
+                } else {
+                    Stream content = createMIMEAttachment(target, body, stream, source.getFileName());
+                    if (content != stream) {
+                        streams.add(content);
+                    }
+                }
+            }
+            target.closeMIMEEntities(true, fieldName);
+        } finally {
+            for (Stream stream : streams) {
+                stream.close();
+            }
+        }
+    }
+
+    private static void copyToRT(final List<Attachment> sources, 
+            final Document target,
+            final String fieldName) throws IOException {
+        RichTextItem rt = getRichTextItem(target, fieldName);
+        File dir = Files.createTempDirectory("tiles").toFile();
+        try {
+            for (Attachment source : sources) {
+                File file = new File(dir, sanitizeFileName(source.getFileName()));
+                if (file.exists()) {
+                    // embedded file name must be preserved, use another directory
+                    file = new File(Files.createTempDirectory(dir.toPath(), "d").toFile(), 
+                            file.getName());
+                }
+                if (source instanceof RTAttachment) {
+                    ((RTAttachment) source).getEmbeddedObject().extractFile(file.getPath());
+                } else {
+                    InputStream is = source.getStream();
+                    try {
+                        Files.copy(is, file.toPath());
+                    } finally {
+                        is.close();
+                    }
+                }
+                rt.embedObject(EmbeddedObject.EMBED_ATTACHMENT, "", file.getCanonicalPath(), null);
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void deleteRecursively(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
     }
 
     /**
      * Deletes document and all its responses.
      */
     public static void deleteRecursively(final Document doc) {
+        DominoEvent event = DominoEvents.document("delete").document(doc);
         DocumentCollection responses = doc.getResponses();
         if (responses != null) {
             responses.removeAll(true);
         }
         doc.remove(true);
+        event.commit();
     }
 
     /**
@@ -220,15 +682,23 @@ public class DocumentUtils {
             final boolean stampDoc, 
             final String fName, 
             final String fValue) {
-        DocumentCollection resp = doc.getResponses();
-        resp.stampAll(fName, fValue);
-        for (Document child : resp) {
-            stampAllChildren(child, false, fName, fValue);
-        }
+        DominoEvent event = DominoEvents.document("stamp").document(doc);
+        stampChildren(doc, fName, fValue);
         if (stampDoc) {
             doc.replaceItemValue(fName, fValue);
             doc.save(true);
         }
+        event.commit();
+    }
+
+    private static void stampChildren(final Document doc, 
+            final String fName, 
+            final String fValue) {
+        DocumentCollection resp = doc.getResponses();
+        resp.stampAll(fName, fValue);
+        for (Document child : resp) {
+            stampChildren(child, fName, fValue);
+        }
     }
 
 }
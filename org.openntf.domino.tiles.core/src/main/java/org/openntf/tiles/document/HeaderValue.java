@@ -0,0 +1,267 @@
+package org.openntf.tiles.document;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * A parsed value of a MIME header with parameters, eg. 
+ * <code>attachment; filename="a.txt"</code>.
+ * <p>
+ * Parameter values can be quoted strings, RFC 2231 extended values
+ * (<code>filename*=UTF-8''%C5%BC.txt</code>) including continuations
+ * (<code>filename*0*=...; filename*1*=...</code>) and RFC 2047 encoded 
+ * words (<code>"=?UTF-8?B?xbwudHh0?="</code>).
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+final class HeaderValue {
+
+    private static final Pattern SECTION = Pattern.compile("(.+?)\\*(\\d+)(\\*?)");
+
+    private static final Pattern ENCODED_WORD = Pattern.compile(
+            "=\\?([^?]+)\\?([bBqQ])\\?([^?]*)\\?=");
+
+    private static final Pattern BETWEEN_WORDS = Pattern.compile("(\\?=)\\s+(=\\?)");
+
+    private final String value;
+
+    private final Map<String, String> params;
+
+    private HeaderValue(final String value, final Map<String, String> params) {
+        this.value = value;
+        this.params = params;
+    }
+
+    /**
+     * Parses a header value.
+     *
+     * @param raw
+     *            a header value with parameters, can be null
+     * @return a parsed value
+     */
+    static HeaderValue parse(final String raw) {
+        if (raw == null) {
+            return new HeaderValue("", Collections.emptyMap());
+        }
+        String unfolded = raw.replaceAll("\\r?\\n[ \\t]+", " ");
+        List<String> parts = split(unfolded);
+        String value = parts.get(0).trim().toLowerCase(Locale.ROOT);
+        Map<String, String> plain = new TreeMap<>();
+        Map<String, List<String[]>> sections = new TreeMap<>();
+        for (int i = 1; i < parts.size(); i++) {
+            String part = parts.get(i);
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String name = part.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String val = unquote(part.substring(eq + 1).trim());
+            Matcher m = SECTION.matcher(name);
+            if (m.matches()) {
+                addSection(sections, m.group(1), Integer.parseInt(m.group(2)), 
+                        !m.group(3).isEmpty(), val);
+            } else if (name.endsWith("*")) {
+                addSection(sections, name.substring(0, name.length() - 1), 0, true, val);
+            } else if (!plain.containsKey(name)) {
+                plain.put(name, val);
+            }
+        }
+        Map<String, String> params = new TreeMap<>(plain);
+        for (Map.Entry<String, List<String[]>> entry : sections.entrySet()) {
+            params.put(entry.getKey(), joinSections(entry.getValue()));
+        }
+        return new HeaderValue(value, params);
+    }
+
+    /**
+     * Returns a value without parameters in lower case, eg. 
+     * <code>multipart/mixed</code>.
+     * @return a value
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns a decoded value of a parameter.
+     * @param name a name of a parameter
+     * @return a value or null if parameter doesn't exist
+     */
+    String getParameter(final String name) {
+        String val = params.get(name.toLowerCase(Locale.ROOT));
+        return val == null ? null : decodeWords(val);
+    }
+
+    /**
+     * Splits a header on semicolons outside of quoted strings.
+     */
+    private static List<String> split(final String s) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quoted && c == '\\' && i + 1 < s.length()) {
+                sb.append(c).append(s.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                parts.add(sb.toString());
+                sb.setLength(0);
+                continue;
+            }
+            sb.append(c);
+        }
+        parts.add(sb.toString());
+        return parts;
+    }
+
+    private static String unquote(final String s) {
+        if (s.length() < 2 || s.charAt(0) != '"') {
+            return s;
+        }
+        int end = s.charAt(s.length() - 1) == '"' ? s.length() - 1 : s.length();
+        StringBuilder sb = new StringBuilder(end);
+        for (int i = 1; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                c = s.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void addSection(final Map<String, List<String[]>> sections, 
+            final String name,
+            final int idx, 
+            final boolean extended, 
+            final String val) {
+        List<String[]> list = sections.computeIfAbsent(name, k -> new ArrayList<>());
+        while (list.size() <= idx) {
+            list.add(null);
+        }
+        list.set(idx, new String[] {extended ? "*" : "", val});
+    }
+
+    /**
+     * Joins RFC 2231 sections decoding extended values.
+     */
+    private static String joinSections(final List<String[]> sections) {
+        Charset charset = StandardCharsets.UTF_8;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < sections.size(); i++) {
+            String[] section = sections.get(i);
+            if (section == null) {
+                // missing section ends the value
+                break;
+            }
+            String val = section[1];
+            if (section[0].isEmpty()) {
+                byte[] b = val.getBytes(charset);
+                bytes.write(b, 0, b.length);
+                continue;
+            }
+            if (i == 0) {
+                int q1 = val.indexOf('\'');
+                int q2 = q1 < 0 ? -1 : val.indexOf('\'', q1 + 1);
+                if (q2 >= 0) {
+                    charset = charset(val.substring(0, q1), charset);
+                    val = val.substring(q2 + 1);
+                }
+            }
+            percentDecode(val, bytes);
+        }
+        return new String(bytes.toByteArray(), charset);
+    }
+
+    private static void percentDecode(final String val, final ByteArrayOutputStream out) {
+        for (int i = 0; i < val.length(); i++) {
+            char c = val.charAt(i);
+            if (c == '%' && isHex(val, i + 1)) {
+                out.write(Integer.parseInt(val.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                byte[] b = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                out.write(b, 0, b.length);
+            }
+        }
+    }
+
+    private static boolean isHex(final String s, final int idx) {
+        return idx + 1 < s.length() 
+                && Character.digit(s.charAt(idx), 16) >= 0 
+                && Character.digit(s.charAt(idx + 1), 16) >= 0;
+    }
+
+    private static Charset charset(final String name, final Charset def) {
+        try {
+            // RFC 2231 allows a language after an asterisk
+            int star = name.indexOf('*');
+            return Charset.forName(star < 0 ? name : name.substring(0, star));
+        } catch (RuntimeException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Decodes RFC 2047 encoded words in a text.
+     *
+     * @param s
+     *            a text
+     * @return a decoded text
+     */
+    static String decodeWords(final String s) {
+        if (!s.contains("=?")) {
+            return s;
+        }
+        // whitespace between adjacent encoded words is ignored
+        String text = BETWEEN_WORDS.matcher(s).replaceAll("$1$2");
+        Matcher m = ENCODED_WORD.matcher(text);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            Charset charset = charset(m.group(1), null);
+            String decoded = m.group();
+            if (charset != null) {
+                byte[] bytes;
+                if (m.group(2).equalsIgnoreCase("B")) {
+                    bytes = Base64.decodeBase64(m.group(3));
+                } else {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    String q = m.group(3);
+                    for (int i = 0; i < q.length(); i++) {
+                        char c = q.charAt(i);
+                        if (c == '_') {
+                            out.write(' ');
+                        } else if (c == '=' && isHex(q, i + 1)) {
+                            out.write(Integer.parseInt(q.substring(i + 1, i + 3), 16));
+                            i += 2;
+                        } else {
+                            out.write(c);
+                        }
+                    }
+                    bytes = out.toByteArray();
+                }
+                decoded = new String(bytes, charset);
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(decoded));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,374 @@
+package org.openntf.tiles.document;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Creates and caches scaled down versions of image attachments, eg.
+ * thumbnails.
+ * <p>
+ * A derivative is generated once for a version of an attachment and 
+ * stored in a cache directory. The key of a cache includes document UNID,
+ * modification time, file name, size of an attachment and maximum 
+ * dimensions of a derivative. Images are scaled in a bounded pool of 
+ * threads; the source image is read in the calling Domino thread. 
+ * PNG and GIF images produce PNG derivatives, other images JPEG.
+ * <p>
+ * Dimensions of an image are checked before it's decoded and images 
+ * with more than <code>maxPixels</code> pixels are rejected. Large images
+ * are subsampled while decoding. When the cache grows over 
+ * <code>maxCacheSize</code> bytes the least recently used derivatives 
+ * are deleted. Derivatives used within the last minute aren't deleted, 
+ * so the cache can temporarily exceed the limit.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class ImageDerivatives {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageDerivatives.class);
+
+    public static final int DEFAULT_THREADS = 2;
+
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    public static final long DEFAULT_MAX_PIXELS = 100L * 1000 * 1000;
+
+    public static final long DEFAULT_MAX_CACHE_SIZE = 256L * 1024 * 1024;
+
+    /** Minimum interval between updates of the last access time of a file. */
+    private static final long TOUCH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile ImageDerivatives defaultInstance;
+
+    private final File cacheDir;
+
+    private final long maxPixels;
+
+    private final long maxCacheSize;
+
+    private final ExecutorService executor;
+
+    private final ConcurrentMap<String, CompletableFuture<File>> inProgress = 
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new instance of {@link ImageDerivatives}.
+     *
+     * @param cacheDir
+     *            a directory where derivatives are stored
+     * @param threads
+     *            number of threads scaling images
+     * @param queueSize
+     *            maximum number of images waiting for scaling
+     */
+    public ImageDerivatives(final File cacheDir, final int threads, final int queueSize) {
+        this(cacheDir, threads, queueSize, DEFAULT_MAX_PIXELS, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    /**
+     * Constructs a new instance of {@link ImageDerivatives}.
+     *
+     * @param cacheDir
+     *            a directory where derivatives are stored
+     * @param threads
+     *            number of threads scaling images
+     * @param queueSize
+     *            maximum number of images waiting for scaling
+     * @param maxPixels
+     *            maximum number of pixels of a source image
+     * @param maxCacheSize
+     *            maximum size of derivatives in the cache directory in bytes
+     */
+    public ImageDerivatives(final File cacheDir, 
+            final int threads, 
+            final int queueSize,
+            final long maxPixels,
+            final long maxCacheSize) {
+        this.cacheDir = cacheDir;
+        this.maxPixels = maxPixels;
+        this.maxCacheSize = maxCacheSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 
+                60, TimeUnit.SECONDS, 
+                new ArrayBlockingQueue<>(queueSize), 
+                r -> {
+                    Thread thread = new Thread(r, "ImageDerivatives-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns an instance storing derivatives in a temporary directory.
+     * @return the default instance
+     */
+    public static ImageDerivatives getDefault() {
+        if (defaultInstance == null) {
+            synchronized (ImageDerivatives.class) {
+                if (defaultInstance == null) {
+                    File dir = new File(System.getProperty("java.io.tmpdir"), "tiles-derivatives");
+                    defaultInstance = new ImageDerivatives(dir, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    public static void setDefault(final ImageDerivatives derivatives) {
+        defaultInstance = derivatives;
+    }
+
+    /**
+     * Checks if an attachment is an image.
+     * @param att an attachment
+     * @return true if an attachment is an image
+     */
+    public static boolean isImage(final Attachment att) {
+        return Attachment.guessMIME(att.getFileName()).startsWith("image/");
+    }
+
+    /**
+     * Returns MIME type of a derivative of an attachment.
+     * @param att an image attachment
+     * @return MIME type
+     */
+    public static String getContentType(final Attachment att) {
+        return "png".equals(getFormat(att)) ? "image/png" : "image/jpeg";
+    }
+
+    private static String getFormat(final Attachment att) {
+        String mime = Attachment.guessMIME(att.getFileName());
+        return "image/png".equals(mime) || "image/gif".equals(mime) ? "png" : "jpg";
+    }
+
+    /**
+     * Returns a file with a derivative of an image attachment which fits 
+     * in given dimensions. Images smaller than given dimensions aren't
+     * scaled up. It must be called in a Domino thread.
+     *
+     * @param att
+     *            an image attachment
+     * @param maxWidth
+     *            maximum width of a derivative
+     * @param maxHeight
+     *            maximum height of a derivative
+     * @return a file with a derivative
+     * @throws IOException
+     *             when an image can't be read or scaled
+     */
+    public File get(final Attachment att, final int maxWidth, final int maxHeight) 
+            throws IOException {
+        if (!isImage(att)) {
+            throw new IllegalArgumentException("not an image " + att.getFileName());
+        }
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IllegalArgumentException("wrong size " + maxWidth + "x" + maxHeight);
+        }
+        String format = getFormat(att);
+        String key = Hashing.murmur3_128().hashUnencodedChars(att.getETag()) 
+                + "-" + maxWidth + "x" + maxHeight;
+        File file = new File(cacheDir, key + "." + format);
+        long modified = file.lastModified();
+        if (modified > 0) {
+            long now = System.currentTimeMillis();
+            // the last modification time is used as the last access time;
+            // a file which can't be touched has just been evicted
+            if (now - modified <= TOUCH_INTERVAL || file.setLastModified(now)) {
+                return file;
+            }
+        }
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> existing = inProgress.putIfAbsent(key, future);
+        if (existing == null) {
+            generate(att, file, format, maxWidth, maxHeight, key, future);
+        } else {
+            future = existing;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted creating derivative of " + att.getFileName(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("can't create derivative of " + att.getFileName(), e.getCause());
+        }
+    }
+
+    /**
+     * Copies an image to a temporary file and scales it in a pool thread.
+     */
+    private void generate(final Attachment att, 
+            final File file, 
+            final String format,
+            final int maxWidth, 
+            final int maxHeight, 
+            final String key, 
+            final CompletableFuture<File> future) {
+        File source = null;
+        try {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs() && !cacheDir.isDirectory()) {
+                throw new IOException("can't create directory " + cacheDir);
+            }
+            source = File.createTempFile("src", ".tmp", cacheDir);
+            try (InputStream is = att.getStream()) {
+                Files.copy(is, source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            File src = source;
+            executor.execute(() -> {
+                try {
+                    scale(src, file, format, maxWidth, maxHeight);
+                    evict(file);
+                    future.complete(file);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    src.delete();
+                    inProgress.remove(key);
+                }
+            });
+        } catch (IOException | RejectedExecutionException e) {
+            if (source != null) {
+                source.delete();
+            }
+            inProgress.remove(key);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void scale(final File source, 
+            final File target, 
+            final String format,
+            final int maxWidth, 
+            final int maxHeight) throws IOException {
+        long start = System.nanoTime();
+        int width;
+        int height;
+        BufferedImage image;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(source)) {
+            Iterator<ImageReader> readers = iis == null 
+                    ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("unsupported image format " + target.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                // dimensions are read from a header, the image isn't decoded yet
+                int srcWidth = reader.getWidth(0);
+                int srcHeight = reader.getHeight(0);
+                if ((long) srcWidth * srcHeight > maxPixels) {
+                    throw new IOException("image " + target.getName() + " too large " 
+                            + srcWidth + "x" + srcHeight);
+                }
+                double scale = Math.min(1.0, Math.min(
+                        (double) maxWidth / srcWidth, 
+                        (double) maxHeight / srcHeight));
+                width = Math.max(1, (int) Math.round(srcWidth * scale));
+                height = Math.max(1, (int) Math.round(srcHeight * scale));
+                // decode at least twice the target size for a smooth result
+                int step = (int) Math.max(1, Math.floor(1 / (2 * scale)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        boolean png = "png".equals(format);
+        BufferedImage scaled = new BufferedImage(width, height, 
+                png ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        File tmp = File.createTempFile("dst", ".tmp", cacheDir);
+        try {
+            if (!ImageIO.write(scaled, png ? "png" : "jpeg", tmp)) {
+                throw new IOException("no image writer for " + format);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        LOG.debug("scaled {} to {}x{} in {} ms", target.getName(), width, height, 
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Deletes the least recently used derivatives when the cache is larger 
+     * than the limit.
+     * @param keep a derivative which isn't deleted
+     */
+    private synchronized void evict(final File keep) {
+        File[] files = cacheDir.listFiles((dir, name) -> !name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxCacheSize) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxCacheSize) {
+                break;
+            }
+            if (file.equals(keep) 
+                    || System.currentTimeMillis() - file.lastModified() <= TOUCH_INTERVAL) {
+                // recently returned by get and may be read now
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                LOG.debug("evicted {}", file.getName());
+            }
+        }
+    }
+
+}
@@ -1,59 +1,213 @@
 package org.openntf.tiles.document;
 
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import org.openntf.domino.Document;
 import org.openntf.domino.MIMEEntity;
 import org.openntf.domino.MIMEHeader;
 import org.openntf.domino.Stream;
+import org.openntf.tiles.jfr.DominoEvent;
+import org.openntf.tiles.jfr.DominoEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * A wrapper around attachment. Attachment is stored in MIME field.
+ * Content is copied to a {@link ContentStorage} when the attachment 
+ * is created. Content compressed by {@link DocumentUtils} is 
+ * decompressed when read.
  * @author Mariusz Jakubowski
  *
  */
 public class MimeAttachment extends Attachment {
 
-    private int length;
+    private static final Logger LOG = LoggerFactory.getLogger(MimeAttachment.class);
 
-    private ByteArrayInputStream bais;
+    /** A header with encoding of compressed content. */
+    public static final String ENCODING_HEADER = "X-Tiles-Content-Encoding";
+
+    /** A header with size of compressed content before compression. */
+    public static final String SIZE_HEADER = "X-Tiles-Original-Size";
+
+    private final DetachedContent content;
+
+    private String encoding;
+
+    private int size = -1;
 
     public MimeAttachment(final Document doc, final MIMEEntity entity) {
+        this(doc, entity, readHeaders(entity));
+    }
+
+    /**
+     * Creates an attachment from an entity with already read headers.
+     *
+     * @param doc
+     *            parent document
+     * @param entity
+     *            a mime entity containing an attachment
+     * @param headers
+     *            headers of the entity
+     * @see #readHeaders(MIMEEntity)
+     */
+    MimeAttachment(final Document doc, 
+            final MIMEEntity entity, 
+            final Map<String, String> headers) {
         super(doc);
-        fileName = "bez_nazwy";
-        Vector<MIMEHeader> headers = entity.getHeaderObjects();
-        for (MIMEHeader header : headers) {
-            String val = header.getHeaderValAndParams();
-            if (val != null && val.contains("filename=")) {
-                int idx = val.indexOf("filename=") + 9;
-                fileName = val.substring(idx);
-                if (fileName.startsWith("\"")) {
-                    fileName = fileName.substring(1, fileName.length() - 1);
-                }
-            }
+        fileName = readFileName(headers);
+        String contentEncoding = headers.get(ENCODING_HEADER.toLowerCase(Locale.ROOT));
+        if (contentEncoding != null) {
+            encoding = HeaderValue.parse(contentEncoding).getValue();
         }
+        size = parseSize(headers.get(SIZE_HEADER.toLowerCase(Locale.ROOT)));
+        DominoEvent event = DominoEvents.document("stream").document(doc).fileName(fileName);
         Stream stream = document.getParentDatabase().getParent().createStream();
         entity.getContentAsBytes(stream);
-        length = stream.getBytes();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(length);
-        stream.getContents(baos);
-        bais = new ByteArrayInputStream(baos.toByteArray());
-        stream.close();
+        try {
+            content = ContentStorage.getDefault().store(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read attachment " + fileName, e);
+        } finally {
+            stream.close();
+        }
+        event.bytes(content.getSize()).commit();
+    }
+
+    /**
+     * Returns a file name of an attachment from its headers.
+     *
+     * @param headers
+     *            headers of an entity
+     * @return a file name
+     */
+    static String readFileName(final Map<String, String> headers) {
+        String name = HeaderValue.parse(headers.get("content-disposition")).getParameter("filename");
+        if (name == null || name.isEmpty()) {
+            name = HeaderValue.parse(headers.get("content-type")).getParameter("name");
+        }
+        return name == null || name.isEmpty() ? "bez_nazwy" : name;
+    }
+
+    /**
+     * Returns length of an attachment without copying its content to Java.
+     * The length of compressed content is read from {@link #SIZE_HEADER},
+     * otherwise the content is read into a Domino stream.
+     *
+     * @param doc
+     *            parent document
+     * @param entity
+     *            a mime entity containing an attachment
+     * @param headers
+     *            headers of the entity
+     * @return length of an attachment
+     */
+    static int readSize(final Document doc, 
+            final MIMEEntity entity, 
+            final Map<String, String> headers) {
+        int originalSize = parseSize(headers.get(SIZE_HEADER.toLowerCase(Locale.ROOT)));
+        if (originalSize >= 0 && headers.containsKey(ENCODING_HEADER.toLowerCase(Locale.ROOT))) {
+            return originalSize;
+        }
+        Stream stream = doc.getParentDatabase().getParent().createStream();
+        try {
+            entity.getContentAsBytes(stream);
+            return stream.getBytes();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Parses a value of {@link #SIZE_HEADER}.
+     *
+     * @param value
+     *            a value of a header or null
+     * @return a size or -1 if the value is missing or invalid
+     */
+    private static int parseSize(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            LOG.warn("invalid {} header: {}", SIZE_HEADER, value);
+            return -1;
+        }
+    }
+
+    /**
+     * Reads headers of an entity. If a header occurs more than once, 
+     * the first value is used.
+     *
+     * @param entity
+     *            a mime entity
+     * @return a map of lower case header name -> value with parameters
+     */
+    static Map<String, String> readHeaders(final MIMEEntity entity) {
+        Map<String, String> headers = new HashMap<>();
+        Vector<MIMEHeader> objects = entity.getHeaderObjects();
+        if (objects != null) {
+            for (MIMEHeader header : objects) {
+                String name = header.getHeaderName().toLowerCase(Locale.ROOT);
+                if (!headers.containsKey(name)) {
+                    headers.put(name, header.getHeaderValAndParams());
+                }
+            }
+        }
+        return headers;
     }
 
     @Override
     public InputStream getStream()  {
-        return bais;
+        if (encoding == null) {
+            return content.getStream();
+        }
+        InputStream stream = content.getStream();
+        try {
+            return new GZIPInputStream(stream);
+        } catch (IOException e) {
+            try {
+                stream.close();
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw new UncheckedIOException("can't decompress attachment " + fileName, e);
+        }
     }
 
     @Override
     public int getSize() {
-        return length;
+        return encoding != null && size >= 0 ? size : content.getSize();
+    }
+
+    @Override
+    public InputStream getEncodedStream() {
+        return content.getStream();
+    }
+
+    @Override
+    public int getEncodedSize() {
+        return content.getSize();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public void close() {
+        content.close();
     }
 
 }
@@ -1,9 +1,13 @@
 package org.openntf.tiles.document;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.openntf.domino.Document;
 import org.openntf.domino.EmbeddedObject;
+import org.openntf.tiles.jfr.DominoEvent;
+import org.openntf.tiles.jfr.DominoEvents;
 
 /**
  * A wrapper around attachment. Attachment is stored in Rich Text field.
@@ -23,9 +27,64 @@ public class RTAttachment extends Attachment {
         size = embeddedObject.getFileSize();
     }
 
+    /**
+     * Returns an embedded object with this attachment.
+     * @return an embedded object
+     */
+    EmbeddedObject getEmbeddedObject() {
+        return embeddedObject;
+    }
+
     @Override
     public InputStream getStream() {
-        return embeddedObject.getInputStream();
+        DominoEvent event = DominoEvents.document("stream");
+        if (!event.isEnabled()) {
+            return embeddedObject.getInputStream();
+        }
+        event.document(document).fileName(fileName);
+        return new RecordingInputStream(embeddedObject.getInputStream(), event);
+    }
+
+    /**
+     * Counts bytes read from a stream and records an event when 
+     * the stream is closed.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private final DominoEvent event;
+        private long bytes;
+        private boolean closed;
+
+        RecordingInputStream(final InputStream in, final DominoEvent event) {
+            super(in);
+            this.event = event;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                event.bytes(bytes).commit();
+            }
+        }
     }
 
     @Override
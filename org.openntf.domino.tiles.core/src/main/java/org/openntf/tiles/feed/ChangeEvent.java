@@ -0,0 +1,71 @@
+package org.openntf.tiles.feed;
+
+import java.io.Serializable;
+
+import org.openntf.tiles.document.DocumentSnapshot;
+
+/**
+ * Information about a changed document.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public final class ChangeEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String universalID;
+    private final long lastModified;
+    private final boolean deleted;
+    private final DocumentSnapshot snapshot;
+
+    /**
+     * Constructs a new instance of {@link ChangeEvent}.
+     *
+     * @param universalID
+     *            UNID of a document
+     * @param lastModified
+     *            time of modification in milliseconds since epoch
+     * @param deleted
+     *            true if a document was deleted
+     * @param snapshot
+     *            optional snapshot of a document
+     */
+    public ChangeEvent(final String universalID, 
+            final long lastModified, 
+            final boolean deleted,
+            final DocumentSnapshot snapshot) {
+        this.universalID = universalID;
+        this.lastModified = lastModified;
+        this.deleted = deleted;
+        this.snapshot = snapshot;
+    }
+
+    public String getUniversalID() {
+        return universalID;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns a snapshot of a document.
+     * @return a snapshot or null if snapshots aren't enabled or 
+     *          the document was deleted
+     */
+    public DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        return "[ChangeEvent " + universalID + ", modified=" + lastModified 
+            + (deleted ? ", deleted" : "") + "]";
+    }
+
+}
@@ -0,0 +1,287 @@
+package org.openntf.tiles.feed;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openntf.domino.Database;
+import org.openntf.domino.DateTime;
+import org.openntf.domino.Document;
+import org.openntf.domino.DocumentCollection;
+import org.openntf.tiles.config.DBPath;
+import org.openntf.tiles.config.Databases;
+import org.openntf.tiles.document.DocumentSnapshot;
+import org.openntf.tiles.runner.DominoRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers documents modified in configured databases to listeners.
+ * <p>
+ * For each database a checkpoint - time of the last poll reported by the 
+ * server - is kept. Next poll reads only documents modified since 
+ * the checkpoint. Checkpoints are stored in a properties file, so after
+ * restart the feed continues where it stopped. A database without 
+ * a checkpoint is read whole. Changes are delivered at least once.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class ChangeFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeFeed.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final Databases databases;
+
+    private final File checkpointFile;
+
+    private final int batchSize;
+
+    private final String[] snapshotItems;
+
+    private final Properties checkpoints = new Properties();
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Serializes polls started by the scheduler and by callers. */
+    private final Object pollLock = new Object();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructs a feed without snapshots.
+     *
+     * @param databases
+     *            databases to watch
+     * @param checkpointFile
+     *            a file where checkpoints are stored
+     */
+    public ChangeFeed(final Databases databases, final File checkpointFile) {
+        this(databases, checkpointFile, DEFAULT_BATCH_SIZE, null);
+    }
+
+    /**
+     * Constructs a new instance of {@link ChangeFeed}.
+     *
+     * @param databases
+     *            databases to watch
+     * @param checkpointFile
+     *            a file where checkpoints are stored
+     * @param batchSize
+     *            maximum number of events passed to a listener at once
+     * @param snapshotItems
+     *            items copied to a snapshot of a changed document; 
+     *            null if snapshots aren't needed, empty for all items
+     * @throws IllegalArgumentException
+     *             if batch size isn't positive
+     */
+    public ChangeFeed(final Databases databases, 
+            final File checkpointFile, 
+            final int batchSize,
+            final String[] snapshotItems) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("wrong batch size " + batchSize);
+        }
+        this.databases = databases;
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+        this.snapshotItems = snapshotItems == null ? null : snapshotItems.clone();
+        loadCheckpoints();
+    }
+
+    public void addListener(final ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling databases periodically in a background thread.
+     *
+     * @param period
+     *            time between polls
+     * @param unit
+     *            a time unit of the period
+     */
+    public synchronized void start(final long period, final TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("change feed already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(
+                DominoRunner.newThreadFactory("ChangeFeed"));
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                LOG.error("error polling changes", e);
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops polling.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Polls all databases once and delivers changes to listeners.
+     * If another poll is running, e.g. a scheduled one, this call waits 
+     * for it to finish.
+     *
+     * @return number of changed documents
+     */
+    public int poll() {
+        synchronized (pollLock) {
+            return DominoRunner.runDomino(() -> {
+                int count = 0;
+                for (Map.Entry<String, DBPath> entry : databases.entrySet()) {
+                    try {
+                        count += poll(entry.getKey(), entry.getValue());
+                    } catch (RuntimeException e) {
+                        LOG.error("error polling changes in {}", entry.getValue(), e);
+                    }
+                }
+                return count;
+            });
+        }
+    }
+
+    private int poll(final String name, final DBPath path) {
+        Database db = DominoRunner.getSession().getDatabase(path.getServer(), path.getPath());
+        if (db == null) {
+            LOG.warn("can't open database {}", path);
+            return 0;
+        }
+        Date since = getCheckpoint(name);
+        DocumentCollection docs = since == null 
+                ? db.getModifiedDocuments() 
+                : db.getModifiedDocuments(since);
+        DateTime until = docs.getUntilTime();
+        int count = 0;
+        List<ChangeEvent> batch = new ArrayList<>(batchSize);
+        for (Document doc : docs) {
+            batch.add(toEvent(doc));
+            if (batch.size() >= batchSize) {
+                fire(name, path, batch);
+                count += batch.size();
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            fire(name, path, batch);
+            count += batch.size();
+        }
+        if (until != null) {
+            saveCheckpoint(name, until.toJavaDate());
+        }
+        LOG.debug("{} changes in {} since {}", count, path, since);
+        return count;
+    }
+
+    private ChangeEvent toEvent(final Document doc) {
+        boolean deleted = doc.isDeleted();
+        Date modified = deleted ? null : doc.getLastModifiedDate();
+        DocumentSnapshot snapshot = null;
+        if (snapshotItems != null && !deleted) {
+            snapshot = DocumentSnapshot.of(doc, snapshotItems);
+        }
+        return new ChangeEvent(doc.getUniversalID(), 
+                modified == null ? 0 : modified.getTime(), 
+                deleted, 
+                snapshot);
+    }
+
+    private void fire(final String name, final DBPath path, final List<ChangeEvent> batch) {
+        for (ChangeListener listener : listeners) {
+            listener.onChanges(name, path, batch);
+        }
+    }
+
+    /**
+     * Returns a checkpoint of a database.
+     * @param name a symbolic name of a database
+     * @return time of the last poll or null
+     */
+    public Date getCheckpoint(final String name) {
+        String val;
+        synchronized (checkpoints) {
+            val = checkpoints.getProperty(name);
+        }
+        return val == null ? null : new Date(Long.parseLong(val));
+    }
+
+    /**
+     * Removes a checkpoint, so all documents are read in next poll.
+     * @param name a symbolic name of a database
+     */
+    public void resetCheckpoint(final String name) {
+        synchronized (checkpoints) {
+            checkpoints.remove(name);
+            storeCheckpoints();
+        }
+    }
+
+    private void saveCheckpoint(final String name, final Date until) {
+        synchronized (checkpoints) {
+            checkpoints.setProperty(name, Long.toString(until.getTime()));
+            storeCheckpoints();
+        }
+    }
+
+    private void loadCheckpoints() {
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (InputStream is = new FileInputStream(checkpointFile)) {
+            checkpoints.load(is);
+        } catch (IOException e) {
+            LOG.error("can't read checkpoints from {}", checkpointFile, e);
+        }
+    }
+
+    /**
+     * Writes checkpoints to a temporary file and replaces the old file.
+     */
+    private void storeCheckpoints() {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try {
+            try (OutputStream os = new FileOutputStream(tmp)) {
+                checkpoints.store(os, "change feed checkpoints");
+            }
+            Files.move(tmp.toPath(), checkpointFile.toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("can't write checkpoints to {}", checkpointFile, e);
+        }
+    }
+
+}
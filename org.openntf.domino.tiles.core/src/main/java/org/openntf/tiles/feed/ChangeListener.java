@@ -0,0 +1,29 @@
+package org.openntf.tiles.feed;
+
+import java.util.List;
+
+import org.openntf.tiles.config.DBPath;
+
+/**
+ * Receives changes from a {@link ChangeFeed}.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public interface ChangeListener {
+
+    /**
+     * Called with a batch of changed documents. It's called in a Domino 
+     * thread. If it throws an exception the checkpoint isn't advanced
+     * and the changes are delivered again in next poll.
+     *
+     * @param name
+     *            a symbolic name of a database
+     * @param db
+     *            a database path
+     * @param events
+     *            changed documents
+     */
+    void onChanges(String name, DBPath db, List<ChangeEvent> events);
+
+}
@@ -0,0 +1,48 @@
+package org.openntf.tiles.jfr;
+
+import org.openntf.domino.Document;
+
+/**
+ * A timed Domino operation recorded by Java Flight Recorder. 
+ * The time is measured from creation of an event until {@link #commit()}.
+ * When recording is disabled or unavailable all methods do nothing.
+ *
+ * @author Mariusz Jakubowski
+ * @see DominoEvents
+ */
+public interface DominoEvent {
+
+    /**
+     * Checks if the event is recorded. It can be used to skip
+     * computing values of an event.
+     * @return true if the event is recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * Sets the database path and UNID of a document.
+     * @param doc a document
+     * @return this event
+     */
+    DominoEvent document(Document doc);
+
+    /**
+     * Sets a file name.
+     * @param fileName a file name
+     * @return this event
+     */
+    DominoEvent fileName(String fileName);
+
+    /**
+     * Sets number of bytes.
+     * @param bytes number of bytes
+     * @return this event
+     */
+    DominoEvent bytes(long bytes);
+
+    /**
+     * Ends the event and records it.
+     */
+    void commit();
+
+}
@@ -0,0 +1,119 @@
+package org.openntf.tiles.jfr;
+
+import org.openntf.domino.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates Java Flight Recorder events for Domino operations.
+ * <p>
+ * JFR events are used on Java 11 and later when the library is loaded 
+ * from a multi-release jar built on JDK 11+ (the JFR classes are stored in
+ * <code>META-INF/versions/11</code>). On other JVMs, including Java 8, 
+ * the JFR classes aren't loaded and the returned events do nothing.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public final class DominoEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DominoEvents.class);
+
+    /**
+     * Creates events of given kinds.
+     */
+    interface Factory {
+        DominoEvent task(boolean threadInit);
+
+        DominoEvent thread(String operation);
+
+        DominoEvent document(String operation);
+    }
+
+    static final DominoEvent NOOP = new DominoEvent() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public DominoEvent document(final Document doc) {
+            return this;
+        }
+
+        @Override
+        public DominoEvent fileName(final String fileName) {
+            return this;
+        }
+
+        @Override
+        public DominoEvent bytes(final long bytes) {
+            return this;
+        }
+
+        @Override
+        public void commit() {
+        }
+    };
+
+    private static final Factory FACTORY = createFactory();
+
+    private DominoEvents() {
+    }
+
+    private static Factory createFactory() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Factory) Class.forName("org.openntf.tiles.jfr.JfrEventFactory")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (Throwable e) {
+            LOG.debug("JFR not available, Domino events disabled");
+            return new Factory() {
+                @Override
+                public DominoEvent task(final boolean threadInit) {
+                    return NOOP;
+                }
+
+                @Override
+                public DominoEvent thread(final String operation) {
+                    return NOOP;
+                }
+
+                @Override
+                public DominoEvent document(final String operation) {
+                    return NOOP;
+                }
+            };
+        }
+    }
+
+    /**
+     * Starts an event of a task run in a Domino thread.
+     * @param threadInit true if a thread is initialized for the task
+     * @return an event
+     */
+    public static DominoEvent task(final boolean threadInit) {
+        return FACTORY.task(threadInit);
+    }
+
+    /**
+     * Starts an event of initialization or termination of a Domino thread.
+     * @param operation <code>init</code> or <code>term</code>
+     * @return an event
+     */
+    public static DominoEvent thread(final String operation) {
+        return FACTORY.thread(operation);
+    }
+
+    /**
+     * Starts an event of an operation on a document, eg. 
+     * <code>parse</code>, <code>stream</code>, <code>add</code>.
+     * @param operation a name of an operation
+     * @return an event
+     */
+    public static DominoEvent document(final String operation) {
+        return FACTORY.document(operation);
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.openntf.tiles.runner;
+
+/**
+ * Initialization of threads accessing Domino used by {@link DominoRunner}.
+ * The default environment uses the native Domino libraries; 
+ * another environment can be set eg. for load tests.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public interface DominoEnvironment {
+
+    /**
+     * Checks if the current thread is initialized.
+     * @return true if the thread can access Domino
+     */
+    boolean isInitialized();
+
+    /**
+     * Initializes the current thread.
+     */
+    void initThread();
+
+    /**
+     * Cleans up the current thread.
+     */
+    void termThread();
+
+}
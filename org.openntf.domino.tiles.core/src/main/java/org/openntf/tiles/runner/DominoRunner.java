@@ -1,13 +1,32 @@
 package org.openntf.tiles.runner;
 
 import java.lang.Thread.State;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
+import org.openntf.domino.Database;
 import org.openntf.domino.Session;
 import org.openntf.domino.utils.Factory;
 import org.openntf.domino.utils.Factory.SessionType;
+import org.openntf.tiles.config.DBPath;
+import org.openntf.tiles.config.Databases;
+import org.openntf.tiles.jfr.DominoEvent;
+import org.openntf.tiles.jfr.DominoEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +44,10 @@ public class DominoRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(DominoRunner.class);
     
-    private static CountDownLatch startSignal = new CountDownLatch(1);
+    private static volatile CountDownLatch startSignal = new CountDownLatch(1);
+    
+    /** Set when the native session, the C API and the Factory are initialized. */
+    private static volatile boolean ready;
         
     /**
      * A thread that initializes the native session and keeps the notes.ini open.  
@@ -66,6 +88,41 @@ public class DominoRunner {
     
     private static NotesLockerThread notesLocker = null;
     
+    /**
+     * Environment using the native Domino libraries.
+     */
+    private static final DominoEnvironment NATIVE = new DominoEnvironment() {
+        @Override
+        public boolean isInitialized() {
+            return Factory.isInitialized();
+        }
+
+        @Override
+        public void initThread() {
+            DominoRunner.initThread();
+        }
+
+        @Override
+        public void termThread() {
+            DominoRunner.termThread();
+        }
+    };
+    
+    private static volatile DominoEnvironment environment = NATIVE;
+    
+    private static CompletableFuture<Void> cApi;
+    
+    /** Threads with prewarmed databases, null if not started. */
+    private static volatile ThreadPoolExecutor workers;
+    
+    private static CountDownLatch workersReady;
+    
+    /** Databases opened by a worker thread, key is a full path. */
+    private static final ThreadLocal<Map<String, Database>> workerDatabases = new ThreadLocal<>();
+    
+    private static final Map<String, Long> startupTimings = 
+            Collections.synchronizedMap(new LinkedHashMap<>());
+    
     /**
      * Initialize the required libraries.
      * It have to be called once on startup.
@@ -73,22 +130,31 @@ public class DominoRunner {
     public static void startup() {
         LOG.info("DominoRunner Startup");
         synchronized (Factory.class) {
-            if (!Factory.isStarted()) {
-                LOG.info("initializing Domino Factory");
-                Factory.startup();
+            if (!ready) {
+                if (!Factory.isStarted()) {
+                    LOG.info("initializing Domino Factory");
+                    Factory.startup();
+                }
 
-                LOG.info("initializing Domino C API");
-                try {
-                	com.ibm.domino.napi.c.C.initLibrary(null);
-                } catch (Throwable e) {
-                	e.printStackTrace();
+                if (cApi == null) {
+                    LOG.info("initializing Domino C API");
+                    initCApi();
+                    cApi = CompletableFuture.completedFuture(null);
+                } else {
+                    // still running after a timed out parallel startup
+                    LOG.info("waiting for Domino C API initialization");
+                    try {
+                        cApi.join();
+                    } catch (CompletionException e) {
+                        LOG.error("error initializing Domino C API", e.getCause());
+                    }
                 }
                  
                 LOG.info("waiting for Domino session initialization");
-                notesLocker = new NotesLockerThread();
-                notesLocker.start();
+                startNotesLocker();
                 try {
                     startSignal.await();
+                    ready = true;
                     LOG.info("Domino session initialized");
                 } catch (InterruptedException e) {
                     e.printStackTrace();
@@ -98,23 +164,301 @@ public class DominoRunner {
     }
     
     /**
-     * Shutdown the ODA.
+     * Initialize the required libraries, running the independent steps
+     * in parallel.
+     * <p>
+     * The native session, the C API and the Domino Factory are initialized
+     * concurrently. When databases are given <code>prewarmThreads</code> 
+     * worker threads are started and each of them opens the databases 
+     * before this method returns. The workers and their open databases 
+     * are kept until {@link #shutdown()}, tasks passed to 
+     * {@link #submit(Callable)} run on them and 
+     * {@link #getDatabase(DBPath)} returns the already open databases.
+     * Duration of each phase is logged and available in 
+     * {@link #getStartupTimings()}.
+     * <p>
+     * If the timeout elapses the startup continues in the background
+     * and this method can be called again to wait for it.
+     * 
+     * @param databases databases to open on startup, can be null
+     * @param prewarmThreads number of worker threads opening databases
+     * @param timeout maximum time to wait for the startup
+     * @param unit a time unit of the timeout
+     * @return true if startup completed, false if timeout elapsed
      */
-    public static void shutdown() {
-        LOG.info("DominoRunner Shutdown");
+    public static boolean startup(final Databases databases,
+            final int prewarmThreads,
+            final long timeout, 
+            final TimeUnit unit) {
+        LOG.info("DominoRunner Parallel Startup");
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        synchronized (Factory.class) {
+            if (!ready) {
+                startupTimings.clear();
+                
+                LOG.info("waiting for Domino session initialization");
+                startNotesLocker();
+    
+                if (cApi == null) {
+                    cApi = CompletableFuture.runAsync(() -> {
+                        long t = System.nanoTime();
+                        initCApi();
+                        recordTiming("capi", t);
+                    }, r -> {
+                        Thread thread = new Thread(r, "DominoRunner-CAPI");
+                        thread.setDaemon(true);
+                        thread.start();
+                    });
+                }
+    
+                if (!Factory.isStarted()) {
+                    LOG.info("initializing Domino Factory");
+                    long t = System.nanoTime();
+                    Factory.startup();
+                    recordTiming("factory", t);
+                }
+                
+                try {
+                    cApi.get(remaining(deadline), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    LOG.warn("Domino C API not initialized in {} {}", timeout, unit);
+                    return false;
+                } catch (ExecutionException e) {
+                    LOG.error("error initializing Domino C API", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                try {
+                    if (!startSignal.await(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                        LOG.warn("Domino session not initialized in {} {}", timeout, unit);
+                        return false;
+                    }
+                    recordTiming("session", start);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                ready = true;
+                LOG.info("Domino session initialized");
+            }
+        }
+        
+        if (databases != null && !databases.isEmpty() && prewarmThreads > 0) {
+            if (!startWorkers(databases, prewarmThreads, deadline)) {
+                LOG.warn("databases not opened in {} {}", timeout, unit);
+                return false;
+            }
+        }
+        recordTiming("total", start);
+        return true;
+    }
+    
+    /**
+     * Starts the thread keeping the native session if it's not running.
+     */
+    private static void startNotesLocker() {
+        if (notesLocker == null) {
+            notesLocker = new NotesLockerThread();
+            notesLocker.start();
+        }
+    }
 
-        notesLocker.interrupt();
-        int secs = 0;
-        while (notesLocker.getState() != State.TERMINATED && secs < 10) {
-            secs++;
-            LOG.info("Waiting for domino system thread to terminate [{}]", notesLocker.getState());
+    /**
+     * Starts worker threads, each of them opens all databases.
+     * @param databases databases to open
+     * @param threads number of threads
+     * @param deadline time when to stop waiting
+     * @return true if all workers opened databases before deadline
+     */
+    private static boolean startWorkers(final Databases databases, 
+            final int threads, 
+            final long deadline) {
+        CountDownLatch latch;
+        synchronized (DominoRunner.class) {
+            if (workers == null) {
+                long t = System.nanoTime();
+                CountDownLatch opened = new CountDownLatch(threads);
+                AtomicInteger opening = new AtomicInteger(threads);
+                ThreadFactory factory = newThreadFactory("DominoWorker");
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 
+                        0L, TimeUnit.MILLISECONDS, 
+                        new LinkedBlockingQueue<>(),
+                        r -> factory.newThread(() -> {
+                            openDatabases(databases);
+                            if (opening.decrementAndGet() == 0) {
+                                recordTiming("databases", t);
+                            }
+                            opened.countDown();
+                            r.run();
+                        }));
+                executor.prestartAllCoreThreads();
+                workers = executor;
+                workersReady = opened;
+            }
+            latch = workersReady;
+        }
+        try {
+            return latch.await(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Opens databases in the current thread and keeps them for 
+     * {@link #getDatabase(DBPath)}.
+     * @param databases databases to open
+     */
+    private static void openDatabases(final Databases databases) {
+        Map<String, Database> opened = new HashMap<>();
+        for (DBPath path : databases.values()) {
             try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
+                Database db = getSession().getDatabase(path.getServer(), path.getPath());
+                if (db == null || !db.isOpen()) {
+                    LOG.warn("can't open database {}", path);
+                } else {
+                    LOG.debug("opened database {}", path);
+                    opened.put(path.getFullPath(), db);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("can't open database " + path, e);
             }
         }
+        workerDatabases.set(opened);
+    }
+    
+    /**
+     * Runs a task on a worker thread started by 
+     * {@link #startup(Databases, int, long, TimeUnit)}. 
+     * The databases opened on startup are available through
+     * {@link #getDatabase(DBPath)}.
+     * @param task a task to run
+     * @return a future result of the task
+     * @throws IllegalStateException if workers are not started
+     */
+    public static <T> Future<T> submit(final Callable<T> task) {
+        ThreadPoolExecutor executor = workers;
+        if (executor == null) {
+            throw new IllegalStateException("Domino workers are not started");
+        }
+        return executor.submit(() -> {
+            DominoEvent event = DominoEvents.task(false);
+            try {
+                return task.call();
+            } finally {
+                event.commit();
+            }
+        });
+    }
+    
+    /**
+     * Returns a database. On a worker thread the database opened 
+     * on startup is returned, otherwise the database is opened.
+     * @param path a path of the database
+     * @return a database or null if it doesn't exist
+     */
+    public static Database getDatabase(final DBPath path) {
+        Map<String, Database> opened = workerDatabases.get();
+        Database db = opened == null ? null : opened.get(path.getFullPath());
+        if (db == null) {
+            db = getSession().getDatabase(path.getServer(), path.getPath());
+        }
+        return db;
+    }
+    
+    /**
+     * Creates a factory of threads which are initialized for Domino 
+     * for their whole life.
+     * @param prefix a prefix of a thread name
+     * @return a thread factory
+     */
+    public static ThreadFactory newThreadFactory(final String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(() -> {
+                DominoEnvironment env = environment;
+                env.initThread();
+                try {
+                    r.run();
+                } finally {
+                    env.termThread();
+                }
+            }, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns durations of startup phases in milliseconds.
+     * @return a map of phase name -> duration
+     */
+    public static Map<String, Long> getStartupTimings() {
+        synchronized (startupTimings) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(startupTimings));
+        }
+    }
+    
+    private static void recordTiming(final String phase, final long start) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        startupTimings.put(phase, ms);
+        LOG.info("startup phase {} took {} ms", phase, ms);
+    }
+    
+    private static long remaining(final long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+    
+    private static void initCApi() {
+        try {
+        	com.ibm.domino.napi.c.C.initLibrary(null);
+        } catch (Throwable e) {
+        	e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Shutdown the ODA.
+     */
+    public static void shutdown() {
+        LOG.info("DominoRunner Shutdown");
         
+        synchronized (DominoRunner.class) {
+            if (workers != null) {
+                workers.shutdown();
+                try {
+                    if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                        workers.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    workers.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+                workers = null;
+                workersReady = null;
+            }
+        }
+
         synchronized (Factory.class) {
+            ready = false;
+            if (notesLocker != null) {
+                notesLocker.interrupt();
+                int secs = 0;
+                while (notesLocker.getState() != State.TERMINATED && secs < 10) {
+                    secs++;
+                    LOG.info("Waiting for domino system thread to terminate [{}]", notesLocker.getState());
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                    }
+                }
+                notesLocker = null;
+                startSignal = new CountDownLatch(1);
+            }
+        
             if (Factory.isStarted()) {
                 Factory.shutdown();
             }            
@@ -125,6 +469,7 @@ public class DominoRunner {
      * Initializes the Domino thread.
      */
     public static void initThread() {
+        DominoEvent event = DominoEvents.thread("init");
         LOG.trace("initializing Domino thread");
         if (!Factory.isStarted()) {
             LOG.trace("starting Domino factory");
@@ -140,15 +485,36 @@ public class DominoRunner {
         
         LOG.trace("init thread");
         NotesThread.sinitThread();
+        event.commit();
     }
 
     /**
      * Cleans up a thread running a Domino connection.
      */
     public static void termThread() {
+        DominoEvent event = DominoEvents.thread("term");
         LOG.trace("terminating Domino thread");
         NotesThread.stermThread();
         Factory.termThread();
+        event.commit();
+    }
+
+    /**
+     * Returns the environment used to initialize threads.
+     * @return the current environment
+     */
+    public static DominoEnvironment getEnvironment() {
+        return environment;
+    }
+
+    /**
+     * Sets the environment used to initialize threads in 
+     * {@link #runDomino(Supplier)}, {@link #runDominoEx(Callable)} and 
+     * {@link #newThreadFactory(String)}.
+     * @param env an environment or null for the native Domino
+     */
+    public static void setEnvironment(final DominoEnvironment env) {
+        environment = env == null ? NATIVE : env;
     }
 
     /**
@@ -157,16 +523,19 @@ public class DominoRunner {
      * @return
      */
     public static <T> T runDomino(final Supplier<T> supplier) {
-        boolean threadInitialized = Factory.isInitialized();
+        DominoEnvironment env = environment;
+        boolean threadInitialized = env.isInitialized();
+        DominoEvent event = DominoEvents.task(!threadInitialized);
         if (!threadInitialized) {
-            initThread();
+            env.initThread();
         }
         try {
             return supplier.get();
         } finally {
             if (!threadInitialized) {
-                termThread();
+                env.termThread();
             }
+            event.commit();
         }
     }
     
@@ -177,16 +546,19 @@ public class DominoRunner {
      * @throws Exception 
      */
     public static <T> T runDominoEx(final Callable<T> supplier) throws Exception {
-        boolean threadInitialized = Factory.isInitialized();
+        DominoEnvironment env = environment;
+        boolean threadInitialized = env.isInitialized();
+        DominoEvent event = DominoEvents.task(!threadInitialized);
         if (!threadInitialized) {
-            initThread();
+            env.initThread();
         }
         try {
             return supplier.call();
         } finally {
             if (!threadInitialized) {
-                termThread();
+                env.termThread();
             }
+            event.commit();
         }
     }
     
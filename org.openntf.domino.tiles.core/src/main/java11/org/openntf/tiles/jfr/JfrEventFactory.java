@@ -0,0 +1,148 @@
+package org.openntf.tiles.jfr;
+
+import org.openntf.domino.Document;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Creates JFR events. This class is compiled for Java 11 into 
+ * a multi-release jar and loaded only if the JFR API is available.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+final class JfrEventFactory implements DominoEvents.Factory {
+
+    @Override
+    public DominoEvent task(final boolean threadInit) {
+        TaskEvent event = new TaskEvent();
+        if (!event.isEnabled()) {
+            return DominoEvents.NOOP;
+        }
+        event.threadInit = threadInit;
+        event.begin();
+        return new Adapter(event);
+    }
+
+    @Override
+    public DominoEvent thread(final String operation) {
+        ThreadEvent event = new ThreadEvent();
+        if (!event.isEnabled()) {
+            return DominoEvents.NOOP;
+        }
+        event.operation = operation;
+        event.begin();
+        return new Adapter(event);
+    }
+
+    @Override
+    public DominoEvent document(final String operation) {
+        DocumentEvent event = new DocumentEvent();
+        if (!event.isEnabled()) {
+            return DominoEvents.NOOP;
+        }
+        event.operation = operation;
+        event.begin();
+        return new Adapter(event);
+    }
+
+    /**
+     * Sets values of a JFR event.
+     */
+    private static final class Adapter implements DominoEvent {
+        private final Event event;
+
+        Adapter(final Event event) {
+            this.event = event;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public DominoEvent document(final Document doc) {
+            if (event instanceof DocumentEvent && doc != null) {
+                DocumentEvent de = (DocumentEvent) event;
+                de.universalID = doc.getUniversalID();
+                if (doc.getParentDatabase() != null) {
+                    de.database = doc.getParentDatabase().getServer() + "!!" 
+                            + doc.getParentDatabase().getFilePath();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public DominoEvent fileName(final String fileName) {
+            if (event instanceof DocumentEvent) {
+                ((DocumentEvent) event).fileName = fileName;
+            }
+            return this;
+        }
+
+        @Override
+        public DominoEvent bytes(final long bytes) {
+            if (event instanceof DocumentEvent) {
+                ((DocumentEvent) event).bytes = bytes;
+            }
+            return this;
+        }
+
+        @Override
+        public void commit() {
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+        }
+    }
+
+    @Name("org.openntf.tiles.DominoTask")
+    @Label("Domino Task")
+    @Description("Code run by DominoRunner in a Domino thread")
+    @Category({"Domino"})
+    static class TaskEvent extends Event {
+        @Label("Thread Initialized")
+        @Description("The thread was initialized and terminated for this task")
+        boolean threadInit;
+    }
+
+    @Name("org.openntf.tiles.DominoThread")
+    @Label("Domino Thread")
+    @Description("Initialization or termination of a Domino thread")
+    @Category({"Domino"})
+    static class ThreadEvent extends Event {
+        @Label("Operation")
+        String operation;
+    }
+
+    @Name("org.openntf.tiles.DominoDocument")
+    @Label("Domino Document Operation")
+    @Description("An operation on a document or its attachments")
+    @Category({"Domino"})
+    static class DocumentEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Database")
+        String database;
+
+        @Label("UNID")
+        String universalID;
+
+        @Label("File Name")
+        String fileName;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+}
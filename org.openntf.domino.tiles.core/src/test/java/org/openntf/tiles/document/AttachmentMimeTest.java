@@ -0,0 +1,226 @@
+package org.openntf.tiles.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.Test;
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.Item;
+import org.openntf.domino.MIMEEntity;
+import org.openntf.domino.MIMEHeader;
+import org.openntf.domino.Session;
+import org.openntf.domino.Stream;
+
+/**
+ * Tests of walking MIME entities in {@link Attachment}. Domino objects
+ * are replaced by proxies.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class AttachmentMimeTest {
+
+    /** Size of content of the entity read last by getContentAsBytes. */
+    private final int[] contentSize = new int[1];
+
+    /** Holders of next siblings of entities. */
+    private final Map<MIMEEntity, MIMEEntity[]> siblings = new IdentityHashMap<>();
+
+    @Test
+    public void testManyParts() {
+        List<MIMEEntity> parts = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            parts.add(attachment("f" + i + ".txt", i));
+        }
+        List<Attachment> atts = Attachment.parseAttachments(document(multipart(parts)), "Body");
+        assertEquals(300, atts.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals("f" + i + ".txt", atts.get(i).getFileName());
+            assertEquals(i, atts.get(i).getSize());
+            atts.get(i).close();
+        }
+    }
+
+    @Test
+    public void testNestedPartsInOrder() {
+        List<MIMEEntity> nested = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            nested.add(attachment("n" + i + ".bin", 1));
+        }
+        List<MIMEEntity> parts = new ArrayList<>();
+        parts.add(entity(Arrays.asList(header("Content-Type", "text/plain")), null));
+        for (int i = 0; i < 15; i++) {
+            parts.add(attachment("a" + i + ".txt", 1));
+        }
+        parts.add(multipart(nested));
+        parts.add(entity(Arrays.asList(
+                header("Content-Type", "image/png"),
+                header("Content-Disposition", "inline; filename=logo.png")), null));
+        for (int i = 15; i < 30; i++) {
+            parts.add(attachment("a" + i + ".txt", 1));
+        }
+        List<Attachment> atts = Attachment.parseAttachments(document(multipart(parts)), "Body");
+        assertEquals(42, atts.size());
+        assertEquals("a14.txt", atts.get(14).getFileName());
+        assertEquals("n0.bin", atts.get(15).getFileName());
+        assertEquals("n11.bin", atts.get(26).getFileName());
+        assertEquals("a15.txt", atts.get(27).getFileName());
+        assertEquals("a29.txt", atts.get(41).getFileName());
+    }
+
+    @Test
+    public void testDeepNesting() {
+        MIMEEntity entity = attachment("deep.txt", 1);
+        for (int i = 0; i < Attachment.MAX_MIME_DEPTH; i++) {
+            entity = multipart(Collections.singletonList(entity));
+        }
+        List<Attachment> atts = Attachment.parseAttachments(document(entity), "Body");
+        assertEquals(1, atts.size());
+        assertEquals("deep.txt", atts.get(0).getFileName());
+
+        entity = multipart(Collections.singletonList(entity));
+        atts = Attachment.parseAttachments(document(entity), "Body");
+        assertTrue(atts.isEmpty());
+    }
+
+    @Test
+    public void testDescribeAttachments() {
+        List<MIMEEntity> parts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            parts.add(attachment("f" + i + ".txt", i * 10));
+        }
+        parts.add(entity(Arrays.asList(
+                header("Content-Disposition", "attachment; filename=big.txt"),
+                header(MimeAttachment.ENCODING_HEADER, "gzip"),
+                header(MimeAttachment.SIZE_HEADER, "123456")), null));
+        List<AttachmentInfo> infos = Attachment.describeAttachments(
+                document(multipart(parts)), "Body");
+        assertEquals(201, infos.size());
+        assertEquals("f199.txt", infos.get(199).getFileName());
+        assertEquals(1990, infos.get(199).getSize());
+        assertEquals("Body", infos.get(199).getFieldName());
+        assertEquals("big.txt", infos.get(200).getFileName());
+        assertEquals(123456, infos.get(200).getSize());
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(AttachmentMimeTest.class.getClassLoader(),
+                new Class<?>[] {type}, handler));
+    }
+
+    private static MIMEHeader header(final String name, final String value) {
+        return proxy(MIMEHeader.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getHeaderName":
+                return name;
+            case "getHeaderValAndParams":
+                return value;
+            default:
+                return null;
+            }
+        });
+    }
+
+    private MIMEEntity attachment(final String fileName, final int size) {
+        return entity(Arrays.asList(
+                header("Content-Type", "text/plain"),
+                header("Content-Disposition", "attachment; filename=\"" + fileName + "\"")),
+                null, size);
+    }
+
+    private MIMEEntity multipart(final List<MIMEEntity> children) {
+        return entity(Arrays.asList(header("Content-Type", "multipart/mixed; boundary=b")), children);
+    }
+
+    private MIMEEntity entity(final List<MIMEHeader> headers, final List<MIMEEntity> children) {
+        return entity(headers, children, 0);
+    }
+
+    /**
+     * Creates an entity. Children are linked as siblings.
+     */
+    private MIMEEntity entity(final List<MIMEHeader> headers,
+            final List<MIMEEntity> children,
+            final int size) {
+        MIMEEntity[] next = new MIMEEntity[1];
+        MIMEEntity entity = proxy(MIMEEntity.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getHeaderObjects":
+                return new Vector<>(headers);
+            case "getFirstChildEntity":
+                return children == null || children.isEmpty() ? null : children.get(0);
+            case "getNextSibling":
+                return next[0];
+            case "getContentAsBytes":
+                contentSize[0] = size;
+                return null;
+            default:
+                return null;
+            }
+        });
+        if (children != null) {
+            for (int i = 0; i < children.size() - 1; i++) {
+                setNext(children.get(i), children.get(i + 1));
+            }
+        }
+        siblings.put(entity, next);
+        return entity;
+    }
+
+    private void setNext(final MIMEEntity entity, final MIMEEntity next) {
+        siblings.get(entity)[0] = next;
+    }
+
+    private Document document(final MIMEEntity root) {
+        Stream stream = proxy(Stream.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getBytes":
+                return contentSize[0];
+            case "getContents":
+                ((OutputStream) a[0]).write(new byte[contentSize[0]]);
+                return null;
+            default:
+                return null;
+            }
+        });
+        Session session = proxy(Session.class, (p, m, a) -> stream);
+        Database db = proxy(Database.class, (p, m, a) -> session);
+        Item item = proxy(Item.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getTypeEx":
+                return Item.Type.MIME_PART;
+            case "getMIMEEntity":
+                return root;
+            default:
+                return null;
+            }
+        });
+        return proxy(Document.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getFirstItem":
+                return item;
+            case "getParentDatabase":
+                return db;
+            case "getUniversalID":
+                return "0123456789ABCDEF0123456789ABCDEF";
+            case "closeMIMEEntities":
+                return true;
+            default:
+                return null;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.openntf.tiles.document;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link Attachment}.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class AttachmentTest {
+
+    @Test
+    public void testAccepts() {
+        assertTrue(Attachment.accepts("gzip", "gzip"));
+        assertTrue(Attachment.accepts("deflate, gzip;q=0.5", "gzip"));
+        assertTrue(Attachment.accepts("GZIP ; Q=1.0", "gzip"));
+        assertTrue(Attachment.accepts("br, *", "gzip"));
+    }
+
+    @Test
+    public void testNotAccepted() {
+        assertFalse(Attachment.accepts(null, "gzip"));
+        assertFalse(Attachment.accepts("", "gzip"));
+        assertFalse(Attachment.accepts("identity", "gzip"));
+        assertFalse(Attachment.accepts("deflate, br", "gzip"));
+        assertFalse(Attachment.accepts("gzipped", "gzip"));
+    }
+
+    @Test
+    public void testZeroQuality() {
+        assertFalse(Attachment.accepts("gzip;q=0", "gzip"));
+        assertFalse(Attachment.accepts("gzip; q=0.000", "gzip"));
+        assertFalse(Attachment.accepts("*;q=0", "gzip"));
+        assertFalse(Attachment.accepts("*, gzip;q=0", "gzip"));
+        assertFalse(Attachment.accepts("gzip;q=abc", "gzip"));
+    }
+
+    @Test
+    public void testXGzip() {
+        assertTrue(Attachment.accepts("x-gzip", "gzip"));
+        assertFalse(Attachment.accepts("x-gzip;q=0", "gzip"));
+    }
+
+    @Test
+    public void testWildcard() {
+        assertTrue(Attachment.accepts("br;q=1, *;q=0.1", "gzip"));
+        assertTrue(Attachment.accepts("*;q=0, gzip", "gzip"));
+    }
+
+}
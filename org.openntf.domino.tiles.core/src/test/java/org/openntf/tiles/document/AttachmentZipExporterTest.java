@@ -0,0 +1,39 @@
+package org.openntf.tiles.document;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests of names of entries in {@link AttachmentZipExporter}.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class AttachmentZipExporterTest {
+
+    @Test
+    public void testDuplicates() {
+        Set<String> names = new HashSet<>();
+        assertEquals("a.txt", AttachmentZipExporter.uniqueName("a.txt", names));
+        assertEquals("A (1).TXT", AttachmentZipExporter.uniqueName("A.TXT", names));
+        assertEquals("a (2).txt", AttachmentZipExporter.uniqueName("a.txt", names));
+        assertEquals("file", AttachmentZipExporter.uniqueName(null, names));
+        assertEquals("file (1)", AttachmentZipExporter.uniqueName("", names));
+    }
+
+    @Test
+    public void testDirectoriesRemoved() {
+        Set<String> names = new HashSet<>();
+        assertEquals("passwd", AttachmentZipExporter.uniqueName("../../etc/passwd", names));
+        assertEquals("a.exe", AttachmentZipExporter.uniqueName("..\\..\\a.exe", names));
+        assertEquals("b.txt", AttachmentZipExporter.uniqueName("C:b.txt", names));
+        assertEquals("c.txt", AttachmentZipExporter.uniqueName("/tmp/c.txt", names));
+        assertEquals("file", AttachmentZipExporter.uniqueName("..", names));
+        assertEquals("file (1)", AttachmentZipExporter.uniqueName("dir/", names));
+    }
+
+}
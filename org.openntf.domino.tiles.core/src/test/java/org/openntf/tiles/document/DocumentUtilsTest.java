@@ -0,0 +1,183 @@
+package org.openntf.tiles.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.Test;
+import org.openntf.domino.Database;
+import org.openntf.domino.Document;
+import org.openntf.domino.Item;
+import org.openntf.domino.MIMEEntity;
+import org.openntf.domino.MIMEHeader;
+import org.openntf.domino.Session;
+import org.openntf.domino.Stream;
+
+/**
+ * Tests of {@link DocumentUtils}.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class DocumentUtilsTest {
+
+    @Test
+    public void testTextIsCompressible() {
+        assertTrue(DocumentUtils.isCompressible("a.txt"));
+        assertTrue(DocumentUtils.isCompressible("a.html"));
+        assertTrue(DocumentUtils.isCompressible("a.csv"));
+        assertTrue(DocumentUtils.isCompressible("A.LOG"));
+    }
+
+    @Test
+    public void testXmlAndJsonAreCompressible() {
+        assertTrue(DocumentUtils.isCompressible("a.xml"));
+        assertTrue(DocumentUtils.isCompressible("a.json"));
+        assertTrue(DocumentUtils.isCompressible("a.svg"));
+    }
+
+    @Test
+    public void testOfficeDocumentsAreNotCompressible() {
+        assertFalse(DocumentUtils.isCompressible("a.docx"));
+        assertFalse(DocumentUtils.isCompressible("a.xlsx"));
+        assertFalse(DocumentUtils.isCompressible("a.pptx"));
+        assertFalse(DocumentUtils.isCompressible("a.odt"));
+        assertFalse(DocumentUtils.isCompressible("a.ods"));
+    }
+
+    @Test
+    public void testBinariesAreNotCompressible() {
+        assertFalse(DocumentUtils.isCompressible("a.zip"));
+        assertFalse(DocumentUtils.isCompressible("a.gz"));
+        assertFalse(DocumentUtils.isCompressible("a.jar"));
+        assertFalse(DocumentUtils.isCompressible("a.png"));
+        assertFalse(DocumentUtils.isCompressible("a.jpg"));
+        assertFalse(DocumentUtils.isCompressible("a.pdf"));
+        assertFalse(DocumentUtils.isCompressible("noextension"));
+    }
+
+    @Test
+    public void testCopyMIMEEntities() throws IOException {
+        List<String> streamCalls = new ArrayList<>();
+        Stream stream = proxy(Stream.class, (p, m, a) -> {
+            streamCalls.add(m.getName());
+            return "getBytes".equals(m.getName()) ? 10 : null;
+        });
+        Session session = proxy(Session.class, (p, m, a) -> stream);
+        Database db = proxy(Database.class, (p, m, a) -> session);
+
+        MIMEEntity part = proxy(MIMEEntity.class, (p, m, a) -> 
+            "getHeaderObjects".equals(m.getName()) ? new Vector<>(Arrays.asList(
+                header("Content-Type", "text/plain; charset=UTF-8"),
+                header("Content-Disposition", "attachment; filename=\"a.txt\""),
+                header(MimeAttachment.ENCODING_HEADER, "gzip"),
+                header(MimeAttachment.SIZE_HEADER, "100"))) : null);
+        MIMEEntity root = proxy(MIMEEntity.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getHeaderObjects":
+                return new Vector<>(Arrays.asList(header("Content-Type", "multipart/mixed")));
+            case "getFirstChildEntity":
+                return part;
+            default:
+                return null;
+            }
+        });
+        Item item = proxy(Item.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getTypeEx":
+                return Item.Type.MIME_PART;
+            case "getMIMEEntity":
+                return root;
+            default:
+                return null;
+            }
+        });
+        Document source = document(db, item, null);
+
+        Map<String, String> copied = new HashMap<>();
+        String[] contentType = new String[1];
+        MIMEEntity child = proxy(MIMEEntity.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "setContentFromBytes":
+                contentType[0] = (String) a[1];
+                return null;
+            case "createHeader":
+                return proxy(MIMEHeader.class, (p2, m2, a2) -> {
+                    copied.put((String) a[0], (String) a2[0]);
+                    return true;
+                });
+            default:
+                return null;
+            }
+        });
+        MIMEEntity body = proxy(MIMEEntity.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "createChildEntity":
+                return child;
+            case "createHeader":
+                return header("Content-Type", null);
+            default:
+                return null;
+            }
+        });
+        Document target = document(db, null, body);
+
+        DocumentUtils.copyAttachments(source, "Body", target, "Body");
+        assertEquals("text/plain; charset=UTF-8", contentType[0]);
+        assertEquals("attachment; filename=\"a.txt\"", copied.get("Content-Disposition"));
+        assertEquals("gzip", copied.get(MimeAttachment.ENCODING_HEADER));
+        assertEquals("100", copied.get(MimeAttachment.SIZE_HEADER));
+        assertFalse(streamCalls.contains("getContents"));
+        assertFalse(streamCalls.contains("setContents"));
+        assertTrue(streamCalls.contains("close"));
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(DocumentUtilsTest.class.getClassLoader(),
+                new Class<?>[] {type}, handler));
+    }
+
+    private static MIMEHeader header(final String name, final String value) {
+        return proxy(MIMEHeader.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getHeaderName":
+                return name;
+            case "getHeaderValAndParams":
+                return value;
+            case "setHeaderVal":
+                return true;
+            default:
+                return null;
+            }
+        });
+    }
+
+    private static Document document(final Database db, final Item item, final MIMEEntity body) {
+        return proxy(Document.class, (p, m, a) -> {
+            switch (m.getName()) {
+            case "getFirstItem":
+                return item;
+            case "getParentDatabase":
+                return db;
+            case "createMIMEEntity":
+                return body;
+            case "closeMIMEEntities":
+            case "save":
+                return true;
+            default:
+                return null;
+            }
+        });
+    }
+
+}
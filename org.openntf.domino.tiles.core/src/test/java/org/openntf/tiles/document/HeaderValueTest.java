@@ -0,0 +1,140 @@
+package org.openntf.tiles.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link HeaderValue}.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class HeaderValueTest {
+
+    /** A file name with Polish letters. */
+    private static final String ZOLW = "\u017C\u00F3\u0142w.txt";
+
+    @Test
+    public void testValue() {
+        HeaderValue hv = HeaderValue.parse("Attachment; filename=a.txt");
+        assertEquals("attachment", hv.getValue());
+        assertEquals("a.txt", hv.getParameter("filename"));
+        assertEquals("a.txt", hv.getParameter("FileName"));
+        assertNull(hv.getParameter("name"));
+    }
+
+    @Test
+    public void testNull() {
+        HeaderValue hv = HeaderValue.parse(null);
+        assertEquals("", hv.getValue());
+        assertNull(hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testBoundary() {
+        HeaderValue hv = HeaderValue.parse("multipart/mixed; boundary=\"----=_Part_1;x\"");
+        assertEquals("multipart/mixed", hv.getValue());
+        assertEquals("----=_Part_1;x", hv.getParameter("boundary"));
+    }
+
+    @Test
+    public void testFolded() {
+        HeaderValue hv = HeaderValue.parse("attachment;\r\n\tfilename=\"a.txt\"");
+        assertEquals("attachment", hv.getValue());
+        assertEquals("a.txt", hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testQuotedSemicolon() {
+        HeaderValue hv = HeaderValue.parse("attachment; filename=\"a;b.pdf\"; size=10");
+        assertEquals("a;b.pdf", hv.getParameter("filename"));
+        assertEquals("10", hv.getParameter("size"));
+    }
+
+    @Test
+    public void testEscapes() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename=\"a \\\"b\\\"; c\\\\d.pdf\"; size=10");
+        assertEquals("a \"b\"; c\\d.pdf", hv.getParameter("filename"));
+        assertEquals("10", hv.getParameter("size"));
+    }
+
+    @Test
+    public void testBEncodedWord() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename=\"=?UTF-8?B?xbzDs8WCdy50eHQ=?=\"");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testQEncodedWord() {
+        HeaderValue hv = HeaderValue.parse(
+                "application/pdf; name=\"=?iso-8859-2?Q?=BF=F3=B3w_1.txt?=\"");
+        assertEquals("\u017C\u00F3\u0142w 1.txt", hv.getParameter("name"));
+    }
+
+    @Test
+    public void testAdjacentEncodedWords() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename=\"=?UTF-8?Q?=C5=BC=C3=B3?= =?UTF-8?B?xYJ3LnR4dA==?=\"");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testTextAroundEncodedWord() {
+        assertEquals("a \u017C b", HeaderValue.decodeWords("a =?UTF-8?B?xbw=?= b"));
+    }
+
+    @Test
+    public void testUnknownCharset() {
+        String word = "=?x-unknown?Q?abc?=";
+        assertEquals(word, HeaderValue.decodeWords(word));
+    }
+
+    @Test
+    public void testExtendedValue() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename*=UTF-8''%C5%BC%C3%B3%C5%82w.txt");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testExtendedValueWithLanguage() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename*=iso-8859-2'pl'%BF%F3%B3w.txt");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testExtendedValuePreferred() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename=\"zolw.txt\"; filename*=UTF-8''%C5%BC%C3%B3%C5%82w.txt");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testContinuations() {
+        HeaderValue hv = HeaderValue.parse("attachment;\r\n"
+                + " filename*0*=UTF-8''%C5%BC%C3%B3;\r\n"
+                + " filename*1*=%C5%82w;\r\n"
+                + " filename*2=\".txt\"");
+        assertEquals(ZOLW, hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testContinuationsOutOfOrder() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename*1=\"b;c.txt\"; filename*0=\"a\"");
+        assertEquals("ab;c.txt", hv.getParameter("filename"));
+    }
+
+    @Test
+    public void testMissingContinuation() {
+        HeaderValue hv = HeaderValue.parse(
+                "attachment; filename*0=\"a\"; filename*2=\"c.txt\"");
+        assertEquals("a", hv.getParameter("filename"));
+    }
+
+}
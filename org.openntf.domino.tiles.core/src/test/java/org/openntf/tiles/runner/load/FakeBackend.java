@@ -0,0 +1,119 @@
+package org.openntf.tiles.runner.load;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-memory store of documents used by load tests instead of a Domino 
+ * database. Each operation spends a configured time on CPU and waiting,
+ * simulating native calls.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class FakeBackend {
+
+    private final Map<String, Map<String, Object>> documents = new ConcurrentHashMap<>();
+
+    private final byte[] attachment;
+
+    private final long cpuNanos;
+
+    private final long waitNanos;
+
+    private final int size;
+
+    /**
+     * Constructs a new instance of {@link FakeBackend}.
+     *
+     * @param documents
+     *            number of documents
+     * @param attachmentSize
+     *            size of an attachment in bytes
+     * @param cpuMicros
+     *            CPU time of an operation
+     * @param waitMicros
+     *            wait time of an operation
+     */
+    public FakeBackend(final int documents, 
+            final int attachmentSize, 
+            final long cpuMicros,
+            final long waitMicros) {
+        this.size = documents;
+        this.attachment = new byte[attachmentSize];
+        ThreadLocalRandom.current().nextBytes(attachment);
+        this.cpuNanos = TimeUnit.MICROSECONDS.toNanos(cpuMicros);
+        this.waitNanos = TimeUnit.MICROSECONDS.toNanos(waitMicros);
+        for (int i = 0; i < documents; i++) {
+            Map<String, Object> doc = new ConcurrentHashMap<>();
+            doc.put("Subject", "Document " + i);
+            doc.put("Counter", 0);
+            this.documents.put(unid(i), doc);
+        }
+    }
+
+    /**
+     * Returns a UNID of a document with given number.
+     * @param i a number of a document
+     * @return a UNID
+     */
+    public static String unid(final int i) {
+        return String.format("%032X", i);
+    }
+
+    /**
+     * Returns a UNID of a random document.
+     * @return a UNID
+     */
+    public String randomUnid() {
+        return unid(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    private void simulate() {
+        FakeEnvironment.spin(cpuNanos);
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    /**
+     * Reads an item from a document.
+     * @param unid a UNID of a document
+     * @param item a name of an item
+     * @return a value
+     */
+    public Object read(final String unid, final String item) {
+        simulate();
+        return documents.get(unid).get(item);
+    }
+
+    /**
+     * Updates an item on a document.
+     * @param unid a UNID of a document
+     * @param item a name of an item
+     * @param value a new value
+     */
+    public void write(final String unid, final String item, final Object value) {
+        simulate();
+        documents.get(unid).put(item, value);
+    }
+
+    /**
+     * Reads an attachment of a document.
+     * @param unid a UNID of a document
+     * @return a checksum of the attachment (a sum of its bytes), returned 
+     *         so that the read isn't optimized away
+     */
+    public long readAttachment(final String unid) {
+        simulate();
+        long sum = 0;
+        for (byte b : attachment) {
+            sum += b;
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.openntf.tiles.runner.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openntf.tiles.runner.DominoEnvironment;
+
+/**
+ * A {@link DominoEnvironment} simulating the cost of thread initialization 
+ * without Domino. A part of the cost is spent holding a global lock, like
+ * the native initialization synchronized on the Domino Factory.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class FakeEnvironment implements DominoEnvironment {
+
+    private final ThreadLocal<Boolean> initialized = ThreadLocal.withInitial(() -> false);
+
+    private final Object factoryLock = new Object();
+
+    private final long initNanos;
+
+    private final long lockedNanos;
+
+    private final AtomicLong inits = new AtomicLong();
+
+    /**
+     * Constructs a new instance of {@link FakeEnvironment}.
+     *
+     * @param initMicros
+     *            time spent initializing or terminating a thread
+     * @param lockedMicros
+     *            part of that time spent holding a global lock
+     */
+    public FakeEnvironment(final long initMicros, final long lockedMicros) {
+        this.initNanos = TimeUnit.MICROSECONDS.toNanos(initMicros);
+        this.lockedNanos = TimeUnit.MICROSECONDS.toNanos(Math.min(lockedMicros, initMicros));
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return initialized.get();
+    }
+
+    @Override
+    public void initThread() {
+        simulate();
+        initialized.set(true);
+        inits.incrementAndGet();
+    }
+
+    @Override
+    public void termThread() {
+        simulate();
+        initialized.remove();
+    }
+
+    private void simulate() {
+        synchronized (factoryLock) {
+            spin(lockedNanos);
+        }
+        spin(initNanos - lockedNanos);
+    }
+
+    /**
+     * Returns number of thread initializations.
+     * @return number of initializations
+     */
+    public long getInits() {
+        return inits.get();
+    }
+
+    /**
+     * Keeps a CPU busy for given time.
+     * @param nanos time in nanoseconds
+     */
+    static void spin(final long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // busy wait
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package org.openntf.tiles.runner.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openntf.tiles.runner.DominoEnvironment;
+import org.openntf.tiles.runner.DominoRunner;
+
+/**
+ * Measures throughput and latency of {@link DominoRunner#runDomino} 
+ * called concurrently by an increasing number of threads. 
+ * Runs against a {@link FakeEnvironment} and a {@link FakeBackend}.
+ * <p>
+ * Usage: <code>LoadHarness [--threads 1,2,4,8,16] [--duration secs] 
+ * [--warmup secs] [--profile read|write|attachment|mixed] 
+ * [--init-us micros] [--lock-us micros] [--op-cpu-us micros] 
+ * [--op-wait-us micros] [--docs n] [--attachment bytes] [--preinit]</code>
+ * <p>
+ * By default each call initializes and terminates its thread; 
+ * with <code>--preinit</code> threads are initialized once.
+ * <p>
+ * The harness is a part of the test sources and isn't packaged
+ * with the library; run it from the test classpath 
+ * (<code>target/test-classes</code>).
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public class LoadHarness {
+
+    private int[] threadCounts = {1, 2, 4, 8, 16};
+    private int durationSecs = 5;
+    private int warmupSecs = 1;
+    private Workload workload = WorkloadProfile.MIXED;
+    private long initMicros = 50;
+    private long lockMicros = 10;
+    private long opCpuMicros = 5;
+    private long opWaitMicros = 20;
+    private int docs = 10000;
+    private int attachmentSize = 16 * 1024;
+    private boolean preinit;
+
+    public static void main(final String[] args) throws InterruptedException {
+        LoadHarness test = new LoadHarness();
+        test.parse(args);
+        test.run();
+    }
+
+    private void parse(final String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--preinit".equals(arg)) {
+                preinit = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value of " + arg);
+            }
+            String val = args[++i];
+            switch (arg) {
+            case "--threads":
+                threadCounts = Arrays.stream(val.split(",")).mapToInt(Integer::parseInt).toArray();
+                break;
+            case "--duration":
+                durationSecs = Integer.parseInt(val);
+                break;
+            case "--warmup":
+                warmupSecs = Integer.parseInt(val);
+                break;
+            case "--profile":
+                workload = WorkloadProfile.valueOf(val.toUpperCase(Locale.ROOT));
+                break;
+            case "--init-us":
+                initMicros = Long.parseLong(val);
+                break;
+            case "--lock-us":
+                lockMicros = Long.parseLong(val);
+                break;
+            case "--op-cpu-us":
+                opCpuMicros = Long.parseLong(val);
+                break;
+            case "--op-wait-us":
+                opWaitMicros = Long.parseLong(val);
+                break;
+            case "--docs":
+                docs = Integer.parseInt(val);
+                break;
+            case "--attachment":
+                attachmentSize = Integer.parseInt(val);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+    }
+
+    private void run() throws InterruptedException {
+        FakeEnvironment env = new FakeEnvironment(initMicros, lockMicros);
+        FakeBackend backend = new FakeBackend(docs, attachmentSize, opCpuMicros, opWaitMicros);
+        DominoEnvironment old = DominoRunner.getEnvironment();
+        DominoRunner.setEnvironment(env);
+        try {
+            System.out.printf("workload=%s preinit=%s init=%dus lock=%dus op=%dus+%dus%n", 
+                    workload, preinit, initMicros, lockMicros, opCpuMicros, opWaitMicros);
+            System.out.printf("%8s %10s %12s %10s %10s %10s %10s %10s%n", 
+                    "threads", "ops", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "inits");
+            for (int threads : threadCounts) {
+                measure(backend, threads, warmupSecs);
+                long inits = env.getInits();
+                Result result = measure(backend, threads, durationSecs);
+                long[] lat = result.latencies;
+                System.out.printf("%8d %10d %12.0f %10.1f %10.1f %10.1f %10.1f %10d%n", 
+                        threads, 
+                        lat.length, 
+                        lat.length / result.seconds,
+                        percentile(lat, 0.50) / 1000.0, 
+                        percentile(lat, 0.99) / 1000.0, 
+                        percentile(lat, 0.999) / 1000.0,
+                        (lat.length == 0 ? 0 : lat[lat.length - 1]) / 1000.0,
+                        env.getInits() - inits);
+            }
+        } finally {
+            DominoRunner.setEnvironment(old);
+        }
+    }
+
+    /**
+     * Runs a workload on given number of threads for given time.
+     */
+    private Result measure(final FakeBackend backend, final int threads, final int secs) 
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Recorder> recorders = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            Runnable loop = () -> {
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    long t = System.nanoTime();
+                    DominoRunner.runDomino(() -> {
+                        workload.execute(backend);
+                        return null;
+                    });
+                    recorder.add(System.nanoTime() - t);
+                }
+            };
+            Thread worker = preinit 
+                    ? DominoRunner.newThreadFactory("LoadHarness").newThread(loop) 
+                    : new Thread(loop, "LoadHarness-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        long t = System.nanoTime();
+        start.countDown();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(secs));
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - t) / 1e9;
+        int n = 0;
+        for (Recorder recorder : recorders) {
+            n += recorder.size;
+        }
+        long[] all = new long[n];
+        int pos = 0;
+        for (Recorder recorder : recorders) {
+            System.arraycopy(recorder.values, 0, all, pos, recorder.size);
+            pos += recorder.size;
+        }
+        Arrays.sort(all);
+        return new Result(all, seconds);
+    }
+
+    /**
+     * Returns a percentile of sorted values.
+     */
+    static long percentile(final long[] sorted, final double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+
+    /**
+     * Latencies recorded by one thread.
+     */
+    private static class Recorder {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(final long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final double seconds;
+
+        Result(final long[] latencies, final double seconds) {
+            this.latencies = latencies;
+            this.seconds = seconds;
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.openntf.tiles.runner.load;
+
+/**
+ * An operation executed repeatedly by a load test in a Domino thread.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public interface Workload {
+
+    /**
+     * Executes one operation.
+     * @param backend a store of documents
+     */
+    void execute(FakeBackend backend);
+
+}
@@ -0,0 +1,56 @@
+package org.openntf.tiles.runner.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Predefined workloads.
+ *
+ * @author Mariusz Jakubowski
+ *
+ */
+public enum WorkloadProfile implements Workload {
+
+    /** Reads a few items from a random document. */
+    READ {
+        @Override
+        public void execute(final FakeBackend backend) {
+            String unid = backend.randomUnid();
+            backend.read(unid, "Subject");
+            backend.read(unid, "Counter");
+        }
+    },
+
+    /** Reads and updates a random document. */
+    WRITE {
+        @Override
+        public void execute(final FakeBackend backend) {
+            String unid = backend.randomUnid();
+            Object counter = backend.read(unid, "Counter");
+            backend.write(unid, "Counter", ((Integer) counter) + 1);
+        }
+    },
+
+    /** Reads an attachment of a random document. */
+    ATTACHMENT {
+        @Override
+        public void execute(final FakeBackend backend) {
+            backend.readAttachment(backend.randomUnid());
+        }
+    },
+
+    /** 80% reads, 10% writes, 10% attachments. */
+    MIXED {
+        @Override
+        public void execute(final FakeBackend backend) {
+            int r = ThreadLocalRandom.current().nextInt(10);
+            if (r == 0) {
+                WRITE.execute(backend);
+            } else if (r == 1) {
+                ATTACHMENT.execute(backend);
+            } else {
+                READ.execute(backend);
+            }
+        }
+    };
+
+}